@@ -17,6 +17,8 @@ public class Constants {
     public static String USERS_COL = "USERS"; // users table/collection/etc.
     public static String CHATS_COL = "CHATS"; // chats table/collection/etc.
     public static String DIALOGS = "DIALOGS"; // user dialogs (full info) table/collection/etc.
+    public static String TOPICS_DIAL_PREF = "TOPICS"; // dialog topic modeling results table/collection/etc. prefix
+    public static String CLASSES_DIAL_PREF = "CLASSES"; // dialog text classification results table/collection/etc. prefix
 
     public static String getMsgDialPref() {
         return MSG_DIAL_PREF;
@@ -57,4 +59,20 @@ public class Constants {
     public static void setDialogs(String DIALOGS) {
         Constants.DIALOGS = DIALOGS;
     }
+
+    public static String getTopicsDialPref() {
+        return TOPICS_DIAL_PREF;
+    }
+
+    public static void setTopicsDialPref(String topicsDialPref) {
+        TOPICS_DIAL_PREF = topicsDialPref;
+    }
+
+    public static String getClassesDialPref() {
+        return CLASSES_DIAL_PREF;
+    }
+
+    public static void setClassesDialPref(String classesDialPref) {
+        CLASSES_DIAL_PREF = classesDialPref;
+    }
 }
@@ -7,8 +7,10 @@
 
 package com.crawlergram.db;
 
+import com.crawlergram.structures.TMessage;
 import com.crawlergram.structures.dialog.TDialog;
 
+import java.util.Iterator;
 import java.util.List;
 
 public interface DBStorageReduced {
@@ -42,6 +44,19 @@ public interface DBStorageReduced {
      */
     void write(Object obj);
 
+    /**
+     * writes objects to current target in batches (bulk writes)
+     * @param objs objects
+     */
+    void writeAll(List<Object> objs);
+
+    /**
+     * writes objects to target in batches (bulk writes), current target is not changed
+     * @param target target's name
+     * @param objs objects
+     */
+    void writeAll(String target, List<Object> objs);
+
     /**
      * creates single field index
      * @param field indexing field
@@ -70,11 +85,43 @@ public interface DBStorageReduced {
      */
     List<Object> readMessages(TDialog target, int dateFrom, int dateTo);
 
+    /**
+     * reads messages between two dates from DB in batches, the whole chat is never kept in memory
+     * @param target target dialog
+     * @param dateFrom date from
+     * @param dateTo date to
+     * @param batchSize max number of messages in one batch
+     */
+    Iterator<List<Object>> readMessagesBatches(TDialog target, int dateFrom, int dateTo, int batchSize);
+
+    /**
+     * reads messages between two dates from DB as TMessages (only the fields of TMessage are read)
+     * @param target target dialog
+     * @param dateFrom date from
+     * @param dateTo date to
+     */
+    List<TMessage> readTMessages(TDialog target, int dateFrom, int dateTo);
+
+    /**
+     * reads messages between two dates from DB as TMessages in batches, the whole chat is never kept in memory
+     * @param target target dialog
+     * @param dateFrom date from
+     * @param dateTo date to
+     * @param batchSize max number of messages in one batch
+     */
+    Iterator<List<TMessage>> readTMessagesBatches(TDialog target, int dateFrom, int dateTo, int batchSize);
+
     /**
      * returns dialogs list
      */
     List<Object> getDialogs();
 
+    /**
+     * returns dialogs iterator, dialogs are read lazily from a cursor (ascending id order).
+     * The iterator can be Closeable, then it should be closed, if it isn't read to the end.
+     */
+    Iterator<Object> getDialogsIterator();
+
     /**
      * saves files from DB to HDD
      * @param path path
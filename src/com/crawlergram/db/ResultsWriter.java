@@ -0,0 +1,157 @@
+/*
+ * Title: ResultsWriter.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.db;
+
+import com.crawlergram.structures.dialog.TDialog;
+import com.crawlergram.structures.results.TCResults;
+import com.crawlergram.structures.results.TMResults;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.crawlergram.db.Constants.CLASSES_DIAL_PREF;
+import static com.crawlergram.db.Constants.TOPICS_DIAL_PREF;
+
+/**
+ * Writes topic modeling and text classification results to DB (per-dialog collections) in background.
+ * Results are converted and written with bulk writes by one writing thread, in order of submission,
+ * so modeling of the next dialog overlaps with writing of the previous one.
+ * The number of queued dialogs is bounded, submission waits if the writer is behind.
+ */
+public class ResultsWriter {
+
+    private DBStorageReduced dbStorage;
+    private boolean replace; // drop results of the previous run before writing
+    private Semaphore pending; // queued (not yet written) dialogs
+    private ExecutorService executor; // single writing thread
+
+    /**
+     * writes topic modeling results of the dialog to TOPICS + dialog id collection
+     *
+     * @param dialog  dialog
+     * @param results results of the models
+     */
+    public CompletableFuture<Void> writeTopics(TDialog dialog, List<TMResults> results) {
+        String target = TOPICS_DIAL_PREF + dialog.getId();
+        return submit(target, () -> {
+            for (int i = 0; i < results.size(); i++) {
+                TMResults res = results.get(i);
+                dbStorage.writeAll(target, res.toMongoDocs(res.getParameters().getModel() + "_" + i));
+            }
+        });
+    }
+
+    /**
+     * writes text classification results of the dialog to CLASSES + dialog id collection
+     *
+     * @param dialog  dialog
+     * @param results results of the models
+     */
+    public CompletableFuture<Void> writeClasses(TDialog dialog, List<TCResults> results) {
+        String target = CLASSES_DIAL_PREF + dialog.getId();
+        return submit(target, () -> {
+            for (int i = 0; i < results.size(); i++)
+                dbStorage.writeAll(target, results.get(i).toMongoDocs(String.valueOf(i)));
+        });
+    }
+
+    /**
+     * waits until all the submitted results are written and stops the writing thread
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * queues writing of the target, the future fails if the writer is interrupted or already closed
+     */
+    private CompletableFuture<Void> submit(String target, Runnable write) {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed(e);
+        }
+        try {
+            return CompletableFuture.runAsync(() -> {
+                if (replace)
+                    dbStorage.dropTarget(target);
+                write.run();
+            }, executor).whenComplete((v, e) -> {
+                pending.release();
+                if (e != null)
+                    System.err.println("UNABLE TO WRITE RESULTS " + target + " " + e.getMessage());
+            });
+        } catch (RejectedExecutionException e) {
+            // writer is closed
+            pending.release();
+            System.err.println("UNABLE TO WRITE RESULTS " + target + " writer is closed");
+            return failed(e);
+        }
+    }
+
+    private static CompletableFuture<Void> failed(Throwable e) {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+
+    public ResultsWriter(ResultsWriterBuilder builder) {
+        this.dbStorage = builder.dbStorage;
+        this.replace = builder.replace;
+        this.pending = new Semaphore(builder.maxPending);
+        this.executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "ResultsWriter"));
+    }
+
+    public static class ResultsWriterBuilder {
+
+        private DBStorageReduced dbStorage;
+        private boolean replace = true;
+        private int maxPending = 4;
+
+        /**
+         * @param replace drop results of the previous run before writing (otherwise documents are inserted or upserted, see storage)
+         */
+        public ResultsWriterBuilder setReplace(boolean replace) {
+            this.replace = replace;
+            return this;
+        }
+
+        /**
+         * @param maxPending max number of dialogs waiting to be written
+         */
+        public ResultsWriterBuilder setMaxPending(int maxPending) {
+            this.maxPending = Math.max(1, maxPending);
+            return this;
+        }
+
+        /**
+         * builder
+         *
+         * @param dbStorage db (batch size and write concern are set there)
+         */
+        public ResultsWriterBuilder(DBStorageReduced dbStorage) {
+            this.dbStorage = dbStorage;
+        }
+
+        public ResultsWriter build() {
+            return new ResultsWriter(this);
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Title: GridFSExporter.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.db.mongo;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSDownloadStream;
+import com.mongodb.client.gridfs.model.GridFSFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports files from GridFS to HDD with a bounded pool of downloading threads.
+ * File descriptors are streamed from a cursor (the pool's queue is bounded, the cursor waits for free threads).
+ * Each file is written through a FileChannel to a temporary ".part" file, which is moved to its name when complete.
+ * Files already exported (the same name and length) can be skipped, so an interrupted export can be resumed.
+ */
+public class GridFSExporter {
+
+    private final GridFSBucket bucket;
+    private final int threads; // number of downloading threads
+    private final boolean resume; // skip files already on disk with the right length
+    private final int bufferSize; // size of copy buffer (bytes)
+    private final int progressInterval; // print progress every N processed files (0 - never)
+
+    private final AtomicLong exported = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long startTime = System.nanoTime();
+
+    /**
+     * exports all the files of the bucket to the path
+     *
+     * @param path HDD path
+     */
+    public void export(String path) {
+        startTime = System.nanoTime();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(2 * threads), r -> new Thread(r, "GridFSExporter"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        try (MongoCursor<GridFSFile> files = bucket.find().iterator()) {
+            while (files.hasNext()) {
+                GridFSFile file = files.next();
+                pool.execute(() -> exportFile(path, file));
+            }
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(this);
+    }
+
+    /**
+     * exports one file to the path
+     *
+     * @param path HDD path
+     * @param file GridFS file
+     * @return true if file is exported or already exists
+     */
+    public boolean exportFile(String path, GridFSFile file) {
+        Path target = Paths.get(path + File.separator + file.getFilename());
+        Path part = target.resolveSibling(target.getFileName() + "." + file.getObjectId().toHexString() + ".part");
+        boolean done = false;
+        try {
+            if (resume && Files.isRegularFile(target) && (Files.size(target) == file.getLength())) {
+                skipped.incrementAndGet();
+                done = true;
+            } else {
+                bytes.addAndGet(download(file, target, part));
+                exported.incrementAndGet();
+                done = true;
+            }
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            System.out.println("MONGODB ERROR " + file.getFilename());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.out.println("OUTPUT STREAM ERROR " + file.getFilename());
+        }
+        if (!done) {
+            failed.incrementAndGet();
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        progress();
+        return done;
+    }
+
+    /**
+     * downloads file to the temporary file and moves it to the target, returns number of bytes
+     */
+    private long download(GridFSFile file, Path target, Path part) throws IOException {
+        if (target.getParent() != null)
+            Files.createDirectories(target.getParent());
+        long written = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        try (GridFSDownloadStream in = bucket.openDownloadStream(file.getObjectId());
+             FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            int n;
+            while ((n = in.read(buffer.array())) > 0) {
+                buffer.limit(n);
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+                buffer.clear();
+                written += n;
+            }
+        }
+        move(part, target);
+        return written;
+    }
+
+    public long getExported() {
+        return exported.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * download speed since the start of the last export (bytes per second)
+     */
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return (seconds > 0) ? bytes.get() / seconds : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "GridFSExporter{exported=" + getExported() + ", skipped=" + getSkipped() + ", failed=" + getFailed()
+                + ", MB=" + String.format("%.1f", getBytes() / 1048576.0)
+                + ", MB/s=" + String.format("%.2f", getThroughput() / 1048576.0) + "}";
+    }
+
+    private void progress() {
+        if (progressInterval <= 0) return;
+        long processed = exported.get() + skipped.get() + failed.get();
+        if (processed % progressInterval == 0)
+            System.out.println("Files: " + processed + " " + this);
+    }
+
+    /**
+     * replaces target with complete file (atomically, if file system supports it)
+     */
+    private static void move(Path part, Path target) throws IOException {
+        try {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public GridFSExporter(GridFSExporterBuilder builder) {
+        this.bucket = builder.bucket;
+        this.threads = builder.threads;
+        this.resume = builder.resume;
+        this.bufferSize = builder.bufferSize;
+        this.progressInterval = builder.progressInterval;
+    }
+
+    public static class GridFSExporterBuilder {
+
+        private GridFSBucket bucket;
+        private int threads = 4;
+        private boolean resume = true;
+        private int bufferSize = 256 * 1024;
+        private int progressInterval = 1000;
+
+        /**
+         * @param threads number of concurrent downloads
+         */
+        public GridFSExporterBuilder setThreads(int threads) {
+            this.threads = Math.max(1, threads);
+            return this;
+        }
+
+        /**
+         * @param resume skip files already on disk with the same length
+         */
+        public GridFSExporterBuilder setResume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        /**
+         * @param bufferSize size of copy buffer (bytes)
+         */
+        public GridFSExporterBuilder setBufferSize(int bufferSize) {
+            this.bufferSize = Math.max(4096, bufferSize);
+            return this;
+        }
+
+        /**
+         * @param progressInterval print progress every N processed files (0 - never)
+         */
+        public GridFSExporterBuilder setProgressInterval(int progressInterval) {
+            this.progressInterval = progressInterval;
+            return this;
+        }
+
+        /**
+         * builder
+         *
+         * @param bucket GridFS bucket
+         */
+        public GridFSExporterBuilder(GridFSBucket bucket) {
+            this.bucket = bucket;
+        }
+
+        public GridFSExporter build() {
+            return new GridFSExporter(this);
+        }
+    }
+
+}
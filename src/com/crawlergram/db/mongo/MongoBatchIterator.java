@@ -0,0 +1,61 @@
+/*
+ * Title: MongoBatchIterator.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.db.mongo;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCursor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Groups documents of a cursor into lists of fixed size.
+ * The cursor is closed after the last batch or on DB error.
+ */
+class MongoBatchIterator<T> implements Iterator<List<T>> {
+
+    private MongoCursor<? extends T> cursor; // open cursor
+    private int batchSize; // max number of documents in one batch
+
+    MongoBatchIterator(MongoCursor<? extends T> cursor, int batchSize) {
+        this.cursor = cursor;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            if (cursor.hasNext())
+                return true;
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+        }
+        cursor.close();
+        return false;
+    }
+
+    @Override
+    public List<T> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<T> batch = new ArrayList<>(batchSize);
+        try {
+            while ((batch.size() < batchSize) && cursor.hasNext()) {
+                batch.add(cursor.next());
+            }
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            cursor.close();
+        }
+        return batch;
+    }
+
+}
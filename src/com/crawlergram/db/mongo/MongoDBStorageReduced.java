@@ -13,18 +13,27 @@ import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
 import com.mongodb.client.gridfs.GridFSFindIterable;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import org.bson.Document;
-import org.bson.types.ObjectId;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
 import com.crawlergram.db.DBStorageReduced;
+import com.crawlergram.structures.TMessage;
 import com.crawlergram.structures.dialog.TDialog;
 
-import java.io.*;
+import java.io.Closeable;
 import java.util.*;
 
 import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Sorts.ascending;
 import static com.mongodb.client.model.Sorts.descending;
 import static com.crawlergram.db.Constants.*;
 
@@ -46,6 +55,21 @@ public class MongoDBStorageReduced implements DBStorageReduced {
     private GridFSBucket gridFSBucket; // bucket for files
     private MongoCollection<Document> collection; //collection
     private boolean upsert; // upsert into DB? if false - regular write
+    private int batchSize; // max number of documents in one bulk write
+    private WriteConcern writeConcern; // write concern of bulk writes
+    private boolean messageProjection; // read only the message fields used by TMessage
+    private int readBatchSize; // number of documents in one cursor batch while reading messages (0 - driver's default)
+    private boolean dateIndexHint; // force "date" index for queries with dates (index must exist)
+    private int exportThreads; // number of concurrent downloads while saving files to HDD
+
+    private static final int DIALOGS_BATCH = 1000; // max number of dialogs in one $in query of CHATS
+
+    // message fields used by TMessage (text, or media caption if text is empty)
+    private static final Bson MESSAGE_FIELDS = Projections.include("_id", "class", "date", "message",
+            "media.class", "media.caption", "media.title", "media.description");
+    // decodes messages directly to TMessages, other classes - with driver's codecs
+    private static final CodecRegistry T_MESSAGE_CODECS = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(new TMessageCodec()), MongoClient.getDefaultCodecRegistry());
 
     public MongoDBStorageReduced(String user, String db, String psw, String host, Integer port, String gridFSBucketName){
         this.user = user;
@@ -59,6 +83,12 @@ public class MongoDBStorageReduced implements DBStorageReduced {
         this.database = mongoClient.getDatabase(db);
         this.gridFSBucket = GridFSBuckets.create(this.database, gridFSBucketName);
         this.upsert = false;
+        this.batchSize = 1000;
+        this.writeConcern = WriteConcern.ACKNOWLEDGED;
+        this.messageProjection = true;
+        this.readBatchSize = 0;
+        this.dateIndexHint = false;
+        this.exportThreads = 4;
     }
 
     public String getUser() {
@@ -157,6 +187,54 @@ public class MongoDBStorageReduced implements DBStorageReduced {
         this.upsert = upsert;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public WriteConcern getWriteConcern() {
+        return writeConcern;
+    }
+
+    public void setWriteConcern(WriteConcern writeConcern) {
+        this.writeConcern = writeConcern;
+    }
+
+    public boolean isMessageProjection() {
+        return messageProjection;
+    }
+
+    public void setMessageProjection(boolean messageProjection) {
+        this.messageProjection = messageProjection;
+    }
+
+    public int getReadBatchSize() {
+        return readBatchSize;
+    }
+
+    public void setReadBatchSize(int readBatchSize) {
+        this.readBatchSize = Math.max(0, readBatchSize);
+    }
+
+    public boolean isDateIndexHint() {
+        return dateIndexHint;
+    }
+
+    public void setDateIndexHint(boolean dateIndexHint) {
+        this.dateIndexHint = dateIndexHint;
+    }
+
+    public int getExportThreads() {
+        return exportThreads;
+    }
+
+    public void setExportThreads(int exportThreads) {
+        this.exportThreads = Math.max(1, exportThreads);
+    }
+
     public void setGridFSBucket(String gridFSBucketName) {
         gridFSBucket = GridFSBuckets.create(database, gridFSBucketName);
     }
@@ -241,6 +319,72 @@ public class MongoDBStorageReduced implements DBStorageReduced {
         }
     }
 
+    /**
+     * writes objects to current collection with unordered bulk writes
+     * @param objs objects
+     */
+    @Override
+    public void writeAll(List<Object> objs) {
+        writeAll(collection, objs);
+    }
+
+    /**
+     * writes objects to target collection with unordered bulk writes (own collection instance, so it can be
+     * used while the target of the storage is changed by another thread)
+     * @param target target collection
+     * @param objs objects
+     */
+    @Override
+    public void writeAll(String target, List<Object> objs) {
+        try {
+            writeAll(database.getCollection(target), objs);
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * splits objects into batches of batchSize and writes each batch with one unordered bulk write
+     * (inserts or upserts, see isUpsert()). Failed documents of a batch don't stop the other ones.
+     * @param coll collection
+     * @param objs objects
+     */
+    private void writeAll(MongoCollection<Document> coll, List<Object> objs) {
+        if ((objs == null) || objs.isEmpty()) return;
+        MongoCollection<Document> target = coll.withWriteConcern(writeConcern);
+        BulkWriteOptions bulkOptions = new BulkWriteOptions().ordered(false);
+        UpdateOptions updateOptions = new UpdateOptions().upsert(true);
+        List<WriteModel<Document>> batch = new ArrayList<>(Math.min(batchSize, objs.size()));
+        for (Object obj : objs) {
+            if (obj == null) continue;
+            Document doc = (Document) obj;
+            if (!isUpsert())
+                batch.add(new InsertOneModel<>(doc));
+            else
+                batch.add(new UpdateOneModel<>(Filters.eq("_id", doc.get("_id")), new Document("$set", doc), updateOptions));
+            if (batch.size() == batchSize) {
+                bulkWrite(target, batch, bulkOptions);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+            bulkWrite(target, batch, bulkOptions);
+    }
+
+    private void bulkWrite(MongoCollection<Document> coll, List<WriteModel<Document>> batch, BulkWriteOptions options) {
+        try {
+            coll.bulkWrite(batch, options);
+        } catch (MongoBulkWriteException e) {
+            if (!e.getWriteErrors().isEmpty())
+                System.err.println(e.getCode() + " " + e.getWriteErrors().size() + " of " + batch.size()
+                        + " documents are not written, first error: " + e.getWriteErrors().get(0).getMessage());
+            if (e.getWriteConcernError() != null)
+                System.err.println(e.getWriteConcernError().getCode() + " " + e.getWriteConcernError().getMessage());
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+        }
+    }
+
     /**
      * creates single field index
      * @param field indexing field
@@ -315,11 +459,21 @@ public class MongoDBStorageReduced implements DBStorageReduced {
      */
     @Override
     public List<Object> readMessages(TDialog target) {
+        return readMessages(target, 0, 0);
+    }
+
+    /**
+     * reads messages between two dates from DB for target collection
+     * @param target targetCollectionName collection
+     * @param dateFrom start date (if both dates are 0 or dateFrom > dateTo - all messages)
+     * @param dateTo end date
+     */
+    @Override
+    public List<Object> readMessages(TDialog target, int dateFrom, int dateTo) {
         try {
-            List<Object> msgs = new LinkedList<>();
+            List<Object> msgs = new ArrayList<>();
             this.setTarget(MSG_DIAL_PREF + target.getId());
-            FindIterable<Document> docs = collection.find().sort(descending("_id"));
-            for (Document doc : docs) {
+            for (Document doc : findMessages(collection, dateFrom, dateTo)) {
                 msgs.add(doc);
             }
             return msgs;
@@ -330,47 +484,102 @@ public class MongoDBStorageReduced implements DBStorageReduced {
     }
 
     /**
-     * reads messages between two dates from DB for target collection
-     * @param target targetCollectionName collection
-     * @param dateFrom start date date
+     * reads messages between two dates from DB for target collection in batches (cursor based)
+     * @param target target dialog
+     * @param dateFrom start date (if both dates are 0 or dateFrom > dateTo - all messages)
      * @param dateTo end date
+     * @param batchSize max number of messages in one batch
      */
     @Override
-    public List<Object> readMessages(TDialog target, int dateFrom, int dateTo) {
-        if (((dateFrom == 0) && (dateTo == 0)) || (dateFrom > dateTo))
-            return readMessages(target);
-        else
-            try {
-                List<Object> msgs = new LinkedList<>();
-                this.setTarget(MSG_DIAL_PREF + target.getId());
-                FindIterable<Document> docs = collection
-                        .find(and(gte("date", dateFrom), lte("date", dateTo)))
-                        .sort(descending("_id"));
-                for (Document doc : docs) {
-                    msgs.add(doc);
-                }
-                return msgs;
-            } catch (MongoException e) {
-                System.err.println(e.getCode() + " " + e.getMessage());
-                return null;
-            }
+    public Iterator<List<Object>> readMessagesBatches(TDialog target, int dateFrom, int dateTo, int batchSize) {
+        try {
+            // own collection instance, target of the storage can be changed while the cursor is open
+            MongoCollection<Document> messages = database.getCollection(MSG_DIAL_PREF + target.getId());
+            return new MongoBatchIterator<Object>(findMessages(messages, dateFrom, dateTo).batchSize(batchSize).iterator(),
+                    batchSize);
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return Collections.emptyIterator();
+        }
+    }
+
+    /**
+     * reads messages between two dates from DB, documents are decoded directly to TMessages
+     * @param target target dialog
+     * @param dateFrom start date (if both dates are 0 or dateFrom > dateTo - all messages)
+     * @param dateTo end date
+     */
+    @Override
+    public List<TMessage> readTMessages(TDialog target, int dateFrom, int dateTo) {
+        try {
+            List<TMessage> msgs = new ArrayList<>();
+            findMessages(tMessages(target), dateFrom, dateTo).into(msgs);
+            return msgs;
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return new ArrayList<>();
+        }
     }
 
     /**
-     * returns dialogs list from respective collection
+     * reads messages between two dates from DB in batches, documents are decoded directly to TMessages
+     * @param target target dialog
+     * @param dateFrom start date (if both dates are 0 or dateFrom > dateTo - all messages)
+     * @param dateTo end date
+     * @param batchSize max number of messages in one batch
+     */
+    @Override
+    public Iterator<List<TMessage>> readTMessagesBatches(TDialog target, int dateFrom, int dateTo, int batchSize) {
+        try {
+            return new MongoBatchIterator<>(findMessages(tMessages(target), dateFrom, dateTo).batchSize(batchSize).iterator(),
+                    batchSize);
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return Collections.emptyIterator();
+        }
+    }
+
+    /**
+     * messages collection of the dialog, which decodes documents to TMessages
+     * @param target target dialog
+     */
+    private MongoCollection<TMessage> tMessages(TDialog target) {
+        return database.getCollection(MSG_DIAL_PREF + target.getId(), TMessage.class).withCodecRegistry(T_MESSAGE_CODECS);
+    }
+
+    /**
+     * query of messages between two dates (descending id order) with projection, cursor batch size and date index hint
+     * @param messages messages collection
+     * @param dateFrom start date (if both dates are 0 or dateFrom > dateTo - all messages)
+     * @param dateTo end date
+     */
+    private <T> FindIterable<T> findMessages(MongoCollection<T> messages, int dateFrom, int dateTo) {
+        FindIterable<T> docs;
+        if (((dateFrom == 0) && (dateTo == 0)) || (dateFrom > dateTo)) {
+            docs = messages.find();
+        } else {
+            docs = messages.find(and(gte("date", dateFrom), lte("date", dateTo)));
+            if (dateIndexHint)
+                docs = docs.hint(Indexes.ascending("date"));
+        }
+        if (messageProjection)
+            docs = docs.projection(MESSAGE_FIELDS);
+        if (readBatchSize > 0)
+            docs = docs.batchSize(readBatchSize);
+        return docs.sort(descending("_id"));
+    }
+
+    /**
+     * returns dialogs list from respective collection, info of dialogs is read from CHATS with batched $in queries
      */
     @Override
     public List<Object> getDialogs() {
         try {
             List<Object> chats = new ArrayList<>();
-            // DIALOGS contain only active dialogs
-            this.setTarget("DIALOGS");
-            FindIterable<Document> dials = collection.find();
-            // CHATS contain all found chats and additional info
-            this.setTarget("CHATS");
-            for (Document dial : dials) {
-                FindIterable<Document> chat = collection.find(eq("_id", dial.get("_id")));
-                chats.add(chat.first());
+            // DIALOGS contain only active dialogs, CHATS contain all found chats and additional info
+            Iterator<Object> dials = getDialogsIterator(database.getCollection(DIALOGS).find());
+            while (dials.hasNext()) {
+                chats.add(dials.next());
             }
             return chats;
         } catch (MongoException e) {
@@ -380,15 +589,30 @@ public class MongoDBStorageReduced implements DBStorageReduced {
     }
 
     /**
-     * saves files from DB to HDD
+     * returns lazy dialogs iterator, dialogs are taken from DIALOGS cursor and joined with CHATS on demand
+     */
+    @Override
+    public Iterator<Object> getDialogsIterator() {
+        try {
+            return getDialogsIterator(database.getCollection(DIALOGS).find().sort(ascending("_id")));
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return Collections.emptyIterator();
+        }
+    }
+
+    private Iterator<Object> getDialogsIterator(FindIterable<Document> dials) {
+        return new DialogsIterator(dials.projection(Projections.include("_id")).batchSize(DIALOGS_BATCH).iterator(),
+                database.getCollection(CHATS_COL));
+    }
+
+    /**
+     * saves files from DB to HDD, files are downloaded concurrently (exportThreads), existing ones are skipped
      * @param path HDD path
      */
     @Override
     public void saveFilesToHDD(String path) {
-        List<GridFSFile> files = getDBFilesInfo();
-        for (GridFSFile file : files) {
-            saveFileToHDD(path, file);
-        }
+        new GridFSExporter.GridFSExporterBuilder(gridFSBucket).setThreads(exportThreads).build().export(path);
     }
 
     /**
@@ -398,21 +622,8 @@ public class MongoDBStorageReduced implements DBStorageReduced {
      */
     @Override
     public void saveFileToHDD(String path, Object filePointer) {
-        try {
-            GridFSFile file = (GridFSFile) filePointer;
-            ObjectId oid = file.getObjectId();
-            path += File.separator + file.getFilename();
-            checkFilePath(path);
-            FileOutputStream fos = new FileOutputStream(path);
-            gridFSBucket.downloadToStream(oid, fos);
-            fos.close();
-        } catch (MongoException e) {
-            System.err.println(e.getCode() + " " + e.getMessage());
-            System.out.println("MONGODB ERROR " + ((GridFSFile) filePointer).getFilename());
-        } catch (IOException e){
-            System.err.println(e.getMessage());
-            System.out.println("OUTPUT STREAM ERROR " + ((GridFSFile) filePointer).getFilename());
-        }
+        new GridFSExporter.GridFSExporterBuilder(gridFSBucket).setResume(false).setProgressInterval(0).build()
+                .exportFile(path, (GridFSFile) filePointer);
     }
 
     /**
@@ -507,21 +718,72 @@ public class MongoDBStorageReduced implements DBStorageReduced {
     }
 
     /**
-     * Checks if the file and path to file exist. If not - creates them.
-     * @param filePath file path
+     * Iterates active dialogs and returns their info from CHATS. Dialogs without info are skipped.
+     * Info is read for DIALOGS_BATCH dialogs at once (one $in query), the order of DIALOGS cursor is kept.
      */
-    private static void checkFilePath(String filePath) {
-        File file = new File(filePath);
-        try {
-            if (!file.getParentFile().exists()) {
-                file.getParentFile().mkdirs();
+    private static class DialogsIterator implements Iterator<Object>, Closeable {
+
+        private MongoCursor<Document> dials; // DIALOGS cursor
+        private MongoCollection<Document> chats; // CHATS collection
+        private Deque<Document> prefetched = new ArrayDeque<>(); // chat infos of the current batch
+
+        DialogsIterator(MongoCursor<Document> dials, MongoCollection<Document> chats) {
+            this.dials = dials;
+            this.chats = chats;
+            advance();
+        }
+
+        /**
+         * reads info of the next batch of dialogs (the next non-empty one)
+         */
+        private void advance() {
+            try {
+                while (prefetched.isEmpty() && dials.hasNext()) {
+                    List<Object> ids = new ArrayList<>(DIALOGS_BATCH);
+                    while ((ids.size() < DIALOGS_BATCH) && dials.hasNext()) {
+                        ids.add(dials.next().get("_id"));
+                    }
+                    Map<Object, Document> found = new HashMap<>();
+                    for (Document chat : chats.find(in("_id", ids)).batchSize(ids.size())) {
+                        found.put(chat.get("_id"), chat);
+                    }
+                    for (Object id : ids) {
+                        Document chat = found.get(id);
+                        if (chat != null)
+                            prefetched.add(chat);
+                    }
+                }
+            } catch (MongoException e) {
+                System.err.println(e.getCode() + " " + e.getMessage());
+                prefetched.clear();
             }
-            if (!file.exists()) {
-                file.createNewFile();
+            if (prefetched.isEmpty())
+                dials.close();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !prefetched.isEmpty();
+        }
+
+        @Override
+        public Object next() {
+            if (prefetched.isEmpty()) {
+                throw new NoSuchElementException();
             }
-            file.createNewFile();
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
+            Document current = prefetched.poll();
+            if (prefetched.isEmpty())
+                advance();
+            return current;
+        }
+
+        /**
+         * closes DIALOGS cursor before the iterator is exhausted
+         */
+        @Override
+        public void close() {
+            prefetched.clear();
+            dials.close();
         }
     }
 
@@ -0,0 +1,127 @@
+/*
+ * Title: TMessageCodec.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.db.mongo;
+
+import com.crawlergram.structures.TMessage;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * Decodes messages stored by crawler directly to TMessage, without building intermediate Documents.
+ * Only _id, class, date, message and media caption fields are read, all other fields are skipped.
+ * The result is the same as TMessage.tMessageFromMongoDoc gives.
+ */
+public class TMessageCodec implements Codec<TMessage> {
+
+    @Override
+    public TMessage decode(BsonReader reader, DecoderContext decoderContext) {
+        Integer id = null;
+        Integer date = null;
+        String cls = null;
+        String message = null;
+        Document media = null;
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id":
+                    id = readInteger(reader);
+                    break;
+                case "date":
+                    date = readInteger(reader);
+                    break;
+                case "class":
+                    cls = readString(reader);
+                    break;
+                case "message":
+                    message = readString(reader);
+                    break;
+                case "media":
+                    media = readMedia(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        if (!"Message".equals(cls))
+            return new TMessage();
+        String text = (message == null) ? "" : message.toLowerCase();
+        if (text.isEmpty())
+            text = TMessage.getMediaCaption(media);
+        return new TMessage(id, text, date);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, TMessage msg, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writer.writeInt32("_id", msg.getId());
+        writer.writeString("class", "Message");
+        writer.writeInt32("date", msg.getDate());
+        writer.writeString("message", (msg.getText() == null) ? "" : msg.getText());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<TMessage> getEncoderClass() {
+        return TMessage.class;
+    }
+
+    /**
+     * reads media sub-document, only fields used for its caption are kept
+     */
+    private static Document readMedia(BsonReader reader) {
+        if (reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+            reader.skipValue();
+            return null;
+        }
+        Document media = new Document();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            switch (name) {
+                case "class":
+                case "caption":
+                case "title":
+                case "description":
+                    media.put(name, readString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return media;
+    }
+
+    private static String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.STRING)
+            return reader.readString();
+        reader.skipValue();
+        return null;
+    }
+
+    private static Integer readInteger(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return (int) reader.readInt64();
+            case DOUBLE:
+                return (int) reader.readDouble();
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+}
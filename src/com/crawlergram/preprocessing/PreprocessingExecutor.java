@@ -0,0 +1,140 @@
+/*
+ * Title: PreprocessingExecutor.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.preprocessing;
+
+import com.crawlergram.db.DBStorageReduced;
+import com.crawlergram.preprocessing.models.PreprocessorModel;
+import com.crawlergram.structures.TLoader;
+import com.crawlergram.structures.dialog.TDialog;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preprocesses several dialogs concurrently with a bounded worker pool.
+ * Messages are read from DB by the calling thread (storage targets are not thread-safe),
+ * the preprocessors chain of each dialog is executed by one of the workers.
+ * The number of loaded, but not yet preprocessed dialogs is limited by maxInFlight (backpressure).
+ */
+public class PreprocessingExecutor {
+
+    private List<PreprocessorModel> preprocessors;
+    private int threads; // degree of parallelism
+    private int maxInFlight; // max number of dialogs in memory waiting for or under preprocessing
+
+    public List<PreprocessorModel> getPreprocessors() {
+        return preprocessors;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public PreprocessingExecutor(PreprocessingExecutorBuilder builder) {
+        this.preprocessors = builder.preprocessors;
+        this.threads = builder.threads;
+        this.maxInFlight = Math.max(builder.maxInFlight, builder.threads);
+    }
+
+    /**
+     * loads and preprocesses all the dialogs of the loader, returns when all of them are done
+     *
+     * @param tLoader   dialogs loader
+     * @param dbStorage storage instance
+     */
+    public void run(TLoader tLoader, DBStorageReduced dbStorage) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try {
+            while (tLoader.hasNext()) {
+                TDialog current = tLoader.next();
+                // waits for a free slot before the messages are read
+                inFlight.acquire();
+                boolean submitted = false;
+                try {
+                    current.loadMessages(dbStorage);
+                    pool.execute(() -> {
+                        try {
+                            preprocess(current);
+                        } catch (RuntimeException e) {
+                            System.err.println("PREPROCESSING ERROR " + current.getId() + " " + e.getMessage());
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    submitted = true;
+                } finally {
+                    // the slot is returned by the worker, or here if the dialog wasn't submitted
+                    if (!submitted)
+                        inFlight.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // workers are stopped even if loading fails, dialogs already submitted are finished
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * runs the preprocessors chain for a single dialog
+     *
+     * @param dialog dialog with loaded messages
+     */
+    private void preprocess(TDialog dialog) {
+        Preprocessing preproc = new Preprocessing.PreprocessingBuilder(dialog, preprocessors).build();
+        preproc.run();
+        System.out.println(dialog.getId() + " " + dialog.getUsername());
+    }
+
+    public static class PreprocessingExecutorBuilder {
+
+        private List<PreprocessorModel> preprocessors;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int maxInFlight = 2 * Runtime.getRuntime().availableProcessors();
+
+        public PreprocessingExecutorBuilder setThreads(int threads) {
+            this.threads = Math.max(1, threads);
+            return this;
+        }
+
+        public PreprocessingExecutorBuilder setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = Math.max(1, maxInFlight);
+            return this;
+        }
+
+        /**
+         * builder
+         *
+         * @param preprocessors preprocessors chain (instances are shared between the workers)
+         */
+        public PreprocessingExecutorBuilder(List<PreprocessorModel> preprocessors) {
+            this.preprocessors = preprocessors;
+        }
+
+        public PreprocessingExecutor build() {
+            return new PreprocessingExecutor(this);
+        }
+
+    }
+
+}
@@ -9,19 +9,24 @@ package com.crawlergram.preprocessing;
 
 import com.crawlergram.db.DBStorageReduced;
 import com.crawlergram.db.mongo.MongoDBStorageReduced;
-import com.crawlergram.preprocessing.liga.LIGA;
+import com.crawlergram.preprocessing.liga.CompactLIGA;
 import com.crawlergram.preprocessing.models.*;
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.TLoader;
+import com.crawlergram.structures.TMessage;
+import com.crawlergram.structures.TVocabulary;
 import org.apache.tika.langdetect.OptimaizeLangDetector;
 import org.apache.tika.language.detect.LanguageDetector;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.Consumer;
 
 public class PreprocessingMain {
 
+    private static boolean debug = false; // prints stats of the language cache
+
     public static void preprocessingLoop(TLoader tLoader, DBStorageReduced dbStorage, List<PreprocessorModel> preprocessors){
         System.out.println("Preprocessing");
         while (tLoader.hasNext()){
@@ -36,16 +41,62 @@ public class PreprocessingMain {
         }
     }
 
+    /**
+     * preprocesses dialogs concurrently
+     *
+     * @param threads     number of worker threads
+     * @param maxInFlight max number of dialogs loaded into memory at the same time
+     */
+    public static void preprocessingLoop(TLoader tLoader, DBStorageReduced dbStorage, List<PreprocessorModel> preprocessors,
+                                         int threads, int maxInFlight){
+        System.out.println("Preprocessing (" + threads + " threads)");
+        PreprocessingExecutor executor = new PreprocessingExecutor.PreprocessingExecutorBuilder(preprocessors)
+                .setThreads(threads).setMaxInFlight(maxInFlight).build();
+        executor.run(tLoader, dbStorage);
+    }
+
+    /**
+     * preprocesses dialogs in streaming mode: dialogs are read lazily and messages are read in batches,
+     * only one batch (window) of messages is kept in memory. Dialog-wide steps (e.g. merging, stemming)
+     * see the current window only. Results of each window are passed to the sink before the next one is read.
+     *
+     * @param tLoader streaming loader (see TLoaderBuilder.setStreaming)
+     * @param sink    consumer of the preprocessed windows (dialog with the messages of the current window)
+     */
+    public static void preprocessingLoopStreaming(TLoader tLoader, List<PreprocessorModel> preprocessors,
+                                                  Consumer<TDialog> sink){
+        System.out.println("Preprocessing (streaming, batch size " + tLoader.getBatchSize() + ")");
+        while (tLoader.hasNext()){
+            TDialog current = tLoader.next();
+            System.out.println(current.getId() + " " + current.getUsername());
+            Iterator<List<TMessage>> batches = tLoader.loadMessagesBatches(current);
+            while (batches.hasNext()){
+                current.setMessages(batches.next());
+                Preprocessing preproc = new Preprocessing.PreprocessingBuilder(current, preprocessors).build();
+                preproc.run();
+                sink.accept(current);
+            }
+            // drops the last window
+            current.setMessages(new ArrayList<>());
+        }
+    }
+
     public static void main(String[] args) {
 
         // DB "telegram" location - localhost:27017
         // User "telegramJ" - db.createUser({user: "telegramJ", pwd: "cart", roles: [{ role: "readWrite", db: "telegram" }]})
         DBStorageReduced dbStorage = new MongoDBStorageReduced("telegramJ", "telegram", "cart", "localhost", 27017, "fs");
 
-        // language identification model (loaded only once)
+        // language identification model (loaded only once), binary model is created from JSON at the first run
         String ligaModelPath = "res" + File.separator + "liga" + File.separator + "model_n3.liga";
-        LIGA ligaModel = new LIGA.LIGABuilder(0.5).setLogLIGA(true).setMaxSearchDepth(5000).build();
-        ligaModel.loadModel(ligaModelPath);
+        String compactLigaModelPath = "res" + File.separator + "liga" + File.separator + "model_n3.cliga";
+        CompactLIGA ligaModel = new CompactLIGA.CompactLIGABuilder(0.5).setLogLIGA(true).build();
+        if (new File(compactLigaModelPath).exists()) {
+            ligaModel.loadModel(compactLigaModelPath);
+        } else {
+            ligaModel.importModel(ligaModelPath);
+            ligaModel.saveModel(compactLigaModelPath);
+        }
 
         // optional language detection using Apache Tika
         LanguageDetector tikaModel = null;
@@ -62,15 +113,27 @@ public class PreprocessingMain {
         // loads dialogs
         TLoader tLoader = new TLoader.TLoaderBuilder(dbStorage).setDateFrom(0).setDateTo(0).build();
 
+        // vocabulary of token IDs (shared by all dialogs)
+        TVocabulary vocabulary = new TVocabulary();
+
+        // cache of language identification results (shared by all dialogs)
+        LanguageCache languageCache = new LanguageCache.LanguageCacheBuilder().setMaxEntries(100000)
+                .setMaxBytes(64L * 1024 * 1024).build();
+
         List<PreprocessorModel> preprocessors = new ArrayList<>();
         preprocessors.add(new MessageMerger.MessageMergerBuilder().build());
-        preprocessors.add(new Tokenizer.TokenizerBuilder(true).build());
-        preprocessors.add(new LanguageIdentificator.LanguageIdentificatorBuilder(tikaModel).build());
+        preprocessors.add(new Tokenizer.TokenizerBuilder(true).setSinglePass(true).setVocabulary(vocabulary).build());
+        LanguageIdentificator languageIdentificator = new LanguageIdentificator.LanguageIdentificatorBuilder(tikaModel)
+                .setCache(languageCache).build();
+        preprocessors.add(languageIdentificator);
         preprocessors.add(new TokensReplacer.TokensReplacerBuilder(replacements).build());
         preprocessors.add(new StopwordsRemover.StopwordsRemoverBuilder(stopwords).build());
         preprocessors.add(new StemmerGRAS.StemmerGRASBuilder().build());
 
-        preprocessingLoop(tLoader, dbStorage, preprocessors);
+        int threads = Runtime.getRuntime().availableProcessors();
+        preprocessingLoop(tLoader, dbStorage, preprocessors, threads, 2 * threads);
+        if (debug) System.out.println(languageCache);
+        languageIdentificator.shutdown();
 
         System.exit(0);
     }
@@ -0,0 +1,60 @@
+/*
+ * Title: DeltaHistogram.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.preprocessing.expfit;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of time deltas between consecutive messages: unique deltas (ascending) and their counts.
+ * Deltas are sorted once and counted in one run, instead of comparing each unique delta with all deltas.
+ */
+public class DeltaHistogram {
+
+    private double[] deltas; // unique deltas (ascending)
+    private double[] counts; // count of each unique delta
+
+    /**
+     * counts deltas between dates (dates are sorted descending, deltas to zero dates are skipped,
+     * same as ExpRegMethods.countDeltas)
+     *
+     * @param dates dates
+     */
+    public DeltaHistogram(int[] dates) {
+        int[] all = new int[Math.max(0, dates.length - 1)];
+        int n = 0;
+        for (int i = 0; i < dates.length - 1; i++) {
+            if (dates[i + 1] != 0) {
+                all[n++] = dates[i] - dates[i + 1];
+            }
+        }
+        Arrays.sort(all, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++)
+            if ((i == 0) || (all[i] != all[i - 1])) unique++;
+        deltas = new double[unique];
+        counts = new double[unique];
+        int k = -1;
+        for (int i = 0; i < n; i++) {
+            if ((i == 0) || (all[i] != all[i - 1])) deltas[++k] = all[i];
+            counts[k]++;
+        }
+    }
+
+    public double[] getDeltas() {
+        return deltas;
+    }
+
+    public double[] getCounts() {
+        return counts;
+    }
+
+    public int size() {
+        return deltas.length;
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Title: ExpFitter.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.preprocessing.expfit;
+
+import com.crawlergram.preprocessing.gaussnewton.ExpRegMethods;
+
+/**
+ * Least squares fitting of exponential function y(x) = B*exp(-r*x).
+ * Initial values are given by the closed-form regression (ExpRegMethods.expRegInitValues),
+ * then refined with Gauss-Newton steps. Jacobian is analytic, normal equations (2x2) are solved in place.
+ * Optional Levenberg-Marquardt damping keeps the iterations stable, when the initial values are far from optimum.
+ */
+public class ExpFitter {
+
+    private int maxIterations; // max number of refining iterations
+    private double precision; // stops, when relative change of the error is lower
+    private boolean levenbergMarquardt; // damping of the steps (plain Gauss-Newton otherwise)
+    private double lambda; // initial damping factor
+
+    /**
+     * returns [B, r] parameters of exponential function y(x) = B*exp(-r*x).
+     * If parameters can't be estimated (less than 2 points), the values of closed-form regression are returned.
+     *
+     * @param x x-axis values
+     * @param y y-axis values
+     */
+    public double[] fit(double[] x, double[] y) {
+        double[] b = ExpRegMethods.expRegInitValues(x, y);
+        if ((x.length < 2) || !isFinite(b[0]) || !isFinite(b[1])) return b;
+        double error = error(x, y, b[0], b[1]);
+        double damping = levenbergMarquardt ? lambda : 0;
+        for (int it = 0; it < maxIterations; it++) {
+            // J^T*J (symmetric 2x2) and J^T*res
+            double a00 = 0, a01 = 0, a11 = 0, g0 = 0, g1 = 0;
+            for (int i = 0; i < x.length; i++) {
+                double e = Math.exp(-b[1] * x[i]);
+                double j0 = e; // d/dB
+                double j1 = -b[0] * x[i] * e; // d/dr
+                double res = b[0] * e - y[i];
+                a00 += j0 * j0;
+                a01 += j0 * j1;
+                a11 += j1 * j1;
+                g0 += j0 * res;
+                g1 += j1 * res;
+            }
+            double newError;
+            double b0;
+            double b1;
+            while (true) {
+                double d00 = a00 * (1 + damping);
+                double d11 = a11 * (1 + damping);
+                double det = d00 * d11 - a01 * a01;
+                if ((det == 0) || !isFinite(det)) return b;
+                b0 = b[0] - (d11 * g0 - a01 * g1) / det;
+                b1 = b[1] - (d00 * g1 - a01 * g0) / det;
+                newError = error(x, y, b0, b1);
+                if (!levenbergMarquardt || (newError <= error)) break;
+                // step is rejected - more damping (closer to gradient descent)
+                damping *= 10;
+                if (damping > 1e10) return b;
+            }
+            if (levenbergMarquardt) damping /= 10;
+            boolean converged = Math.abs(error - newError) <= precision * Math.max(error, Double.MIN_NORMAL);
+            b[0] = b0;
+            b[1] = b1;
+            error = newError;
+            if (converged) break;
+        }
+        return b;
+    }
+
+    /**
+     * sum of squared residuals
+     */
+    private static double error(double[] x, double[] y, double b0, double b1) {
+        double sum = 0;
+        for (int i = 0; i < x.length; i++) {
+            double res = b0 * Math.exp(-b1 * x[i]) - y[i];
+            sum += res * res;
+        }
+        return sum;
+    }
+
+    private static boolean isFinite(double v) {
+        return !Double.isNaN(v) && !Double.isInfinite(v);
+    }
+
+    public ExpFitter(ExpFitterBuilder builder) {
+        this.maxIterations = builder.maxIterations;
+        this.precision = builder.precision;
+        this.levenbergMarquardt = builder.levenbergMarquardt;
+        this.lambda = builder.lambda;
+    }
+
+    public static class ExpFitterBuilder {
+        private int maxIterations = 100;
+        private double precision = 1e-9;
+        private boolean levenbergMarquardt = true;
+        private double lambda = 1e-3;
+
+        /**
+         * @param maxIterations max number of refining iterations (0 - closed-form regression only)
+         */
+        public ExpFitterBuilder setMaxIterations(int maxIterations) {
+            this.maxIterations = Math.max(0, maxIterations);
+            return this;
+        }
+
+        /**
+         * @param precision iterations stop, when relative change of the squared error is lower
+         */
+        public ExpFitterBuilder setPrecision(double precision) {
+            this.precision = precision;
+            return this;
+        }
+
+        /**
+         * @param levenbergMarquardt Levenberg-Marquardt damping of the steps (plain Gauss-Newton otherwise)
+         */
+        public ExpFitterBuilder setLevenbergMarquardt(boolean levenbergMarquardt) {
+            this.levenbergMarquardt = levenbergMarquardt;
+            return this;
+        }
+
+        /**
+         * @param lambda initial damping factor of Levenberg-Marquardt
+         */
+        public ExpFitterBuilder setLambda(double lambda) {
+            this.lambda = lambda;
+            return this;
+        }
+
+        public ExpFitterBuilder() {}
+
+        public ExpFitter build() {
+            return new ExpFitter(this);
+        }
+    }
+
+}
@@ -8,7 +8,9 @@
 package com.crawlergram.preprocessing.gaussnewton;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class ExpRegMethods {
@@ -78,15 +80,14 @@ public class ExpRegMethods {
      * @param deltas       all deltas
      */
     public static List<Integer> countUniqueDeltas(Set<Integer> deltasUnique, List<Integer> deltas) {
+        // one pass over deltas instead of a pass for each unique delta
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (Integer delta : deltas) {
+            counts.merge(delta, 1, Integer::sum);
+        }
         List<Integer> deltasUniqueCounts = new ArrayList<>();
         for (Integer deltaUnique : deltasUnique) {
-            Integer count = 0;
-            for (Integer delta : deltas) {
-                if (deltaUnique.equals(delta)) {
-                    count++;
-                }
-            }
-            deltasUniqueCounts.add(count);
+            deltasUniqueCounts.add(counts.getOrDefault(deltaUnique, 0));
         }
         return deltasUniqueCounts;
     }
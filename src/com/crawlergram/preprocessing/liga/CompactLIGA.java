@@ -0,0 +1,582 @@
+/*
+ * Title: CompactLIGA.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.preprocessing.liga;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * Flat array-based LIGA (and logLIGA) graph for classification. N-grams are packed into long keys
+ * and mapped to int IDs with open addressing tables, languages are small ints, node and edge counts are stored
+ * in primitive arrays (one row of languages per node/edge). Scores are the same as of LIGA.classifyAll.
+ * The model is read from a compact binary file (memory-mapped) or imported from LIGA's JSON model.
+ */
+public class CompactLIGA {
+
+    final private static int MAGIC = 0x4C494741; // "LIGA"
+    final private static int VERSION = 1;
+    final private static int MAX_NGRAM_LENGTH = 4; // 4 chars of 16 bits are packed into long key
+    final private static int ABSENT = -1; // language has no count for node/edge
+
+    // confidence threshold (if lower - language is still UNKNOWN)
+    private double threshold;
+    // max search depth (number of visited n-grams - 1), 0 or less - whole document
+    private int maxSearchDepth;
+    // early exit confidence (0 - disabled, see LIGA)
+    private double earlyExitConfidence;
+    // flag of model, if true - logLIGA, false - LIGA
+    private boolean logLIGA;
+
+    private int ngramLength = 0; // length of model's n-grams
+    private String[] languages = new String[0]; // language ID -> language
+    private int[] nodesTotal = new int[0]; // total number of nodes for language
+    private int[] edgesTotal = new int[0]; // total number of edges for language
+    private LongIntTable nodes = new LongIntTable(0); // packed n-gram -> node ID
+    private int[] nodeCounts = new int[0]; // [node ID * languages + language ID] -> count (ABSENT - no count)
+    private LongIntTable edges = new LongIntTable(0); // (source ID << 32 | target ID) -> edge ID
+    private int[] edgeCounts = new int[0]; // [edge ID * languages + language ID] -> count (ABSENT - no count)
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getMaxSearchDepth() {
+        return maxSearchDepth;
+    }
+
+    public void setMaxSearchDepth(int maxSearchDepth) {
+        this.maxSearchDepth = maxSearchDepth;
+    }
+
+    public double getEarlyExitConfidence() {
+        return earlyExitConfidence;
+    }
+
+    public void setEarlyExitConfidence(double earlyExitConfidence) {
+        this.earlyExitConfidence = earlyExitConfidence;
+    }
+
+    public boolean isLogLIGA() {
+        return logLIGA;
+    }
+
+    public void setLogLIGA(boolean logLIGA) {
+        this.logLIGA = logLIGA;
+    }
+
+    public int getNgramLength() {
+        return ngramLength;
+    }
+
+    public CompactLIGA(CompactLIGABuilder builder) {
+        this.threshold = builder.threshold;
+        this.maxSearchDepth = builder.maxSearchDepth;
+        this.earlyExitConfidence = builder.earlyExitConfidence;
+        this.logLIGA = builder.logLIGA;
+    }
+
+    /**
+     * Gets scores for a given document
+     *
+     * @param doc         document
+     * @param ngramLength n
+     */
+    public Map<String, Double> classifyAll(String doc, int ngramLength) {
+        int langs = languages.length;
+        return classify(doc, ngramLength, new double[langs], new boolean[langs]);
+    }
+
+    /**
+     * Gets scores for a batch of documents (score arrays are allocated once per batch).
+     * The model is only read, several threads can classify batches at the same time.
+     *
+     * @param docs        documents
+     * @param ngramLength n
+     */
+    public List<Map<String, Double>> classifyBatch(List<String> docs, int ngramLength) {
+        List<Map<String, Double>> scores = new ArrayList<>(docs.size());
+        int langs = languages.length;
+        double[] total = new double[langs];
+        boolean[] found = new boolean[langs];
+        for (String doc : docs)
+            scores.add(classify(doc, ngramLength, total, found));
+        return scores;
+    }
+
+    /**
+     * scores of the document
+     *
+     * @param doc         document
+     * @param ngramLength n
+     * @param total       scores of languages (reset)
+     * @param found       languages found in document (reset)
+     */
+    private Map<String, Double> classify(String doc, int ngramLength, double[] total, boolean[] found) {
+        Map<String, Double> scores = new HashMap<>();
+        if (modelIsEmpty() || (ngramLength != this.ngramLength))
+            return scores;
+        int langs = languages.length;
+        Arrays.fill(total, 0d);
+        Arrays.fill(found, false);
+        int[] ngrams = getNgramIds(doc, ngramLength);
+        // path matching visits at most maxSearchDepth + 1 nodes
+        int steps = (maxSearchDepth > 0) ? (int) Math.min(ngrams.length, (long) maxSearchDepth + 1) : ngrams.length;
+        for (int i = 0; i < steps; i++) {
+            int source = ngrams[i];
+            if (source < 0) continue;
+            // the last node has no outgoing edge
+            int edge = ((i + 1 < ngrams.length) && (ngrams[i + 1] >= 0))
+                    ? edges.get(((long) source << 32) | ngrams[i + 1]) : ABSENT;
+            int nodeRow = source * langs;
+            int edgeRow = edge * langs;
+            for (int l = 0; l < langs; l++) {
+                int nodeCount = nodeCounts[nodeRow + l];
+                int edgeCount = (edge >= 0) ? edgeCounts[edgeRow + l] : ABSENT;
+                if ((nodeCount == ABSENT) && (edgeCount == ABSENT)) continue;
+                found[l] = true;
+                total[l] = total[l] + calcScore(Math.max(nodeCount, 0), nodesTotal[l])
+                        + calcScore(Math.max(edgeCount, 0), edgesTotal[l]);
+            }
+            if ((earlyExitConfidence > 0) && LIGA.isDecisive(total, steps - i - 1, earlyExitConfidence))
+                break;
+        }
+        for (int l = 0; l < langs; l++)
+            if (found[l])
+                scores.put(languages[l], total[l]);
+        return scores;
+    }
+
+    /**
+     * Classifies a message and returns the most probable language
+     *
+     * @param doc         original document
+     * @param ngramLength n
+     */
+    public String classifyMostProbable(String doc, int ngramLength) {
+        if (modelIsEmpty())
+            return "EMPTY MODEL";
+        double bestScore = -1.0;
+        String bestLang = "UNKNOWN";
+        for (Entry<String, Double> score : classifyAll(doc, ngramLength).entrySet()) {
+            if (score.getValue() > bestScore && score.getValue() > threshold) {
+                bestScore = score.getValue();
+                bestLang = score.getKey();
+            }
+        }
+        return bestLang;
+    }
+
+    /**
+     * normalized count for LIGA or logLIGA
+     *
+     * @param count count of step
+     * @param total total count of language
+     */
+    private double calcScore(int count, int total) {
+        if (logLIGA) {
+            if ((count > 0) && (total > 0))
+                return Math.log(count) / Math.log(total);
+            return 0d;
+        } else {
+            return (double) count / (double) total;
+        }
+    }
+
+    /**
+     * returns node IDs of document's n-grams (ABSENT if model doesn't contain n-gram)
+     *
+     * @param doc         document
+     * @param ngramLength ngram length
+     */
+    private int[] getNgramIds(String doc, int ngramLength) {
+        int num = doc.length() - (ngramLength - 1);
+        if (num > 0) {
+            int[] ids = new int[num];
+            long key = 0;
+            long mask = (ngramLength == MAX_NGRAM_LENGTH) ? -1L : (1L << (16 * ngramLength)) - 1;
+            // rolling key of the last ngramLength chars
+            for (int i = 0; i < ngramLength - 1; i++)
+                key = (key << 16) | doc.charAt(i);
+            for (int i = 0; i < num; i++) {
+                key = ((key << 16) | doc.charAt(i + ngramLength - 1)) & mask;
+                ids[i] = nodes.get(key);
+            }
+            return ids;
+        } else if (doc.length() > 0) {
+            // padded with spaces
+            long key = 0;
+            for (int i = 0; i < ngramLength; i++)
+                key = (key << 16) | ((i < doc.length()) ? doc.charAt(i) : ' ');
+            return new int[]{nodes.get(key)};
+        } else {
+            return new int[0];
+        }
+    }
+
+    /**
+     * packs n-gram to long key
+     *
+     * @param ngram n-gram
+     */
+    private static long packNgram(String ngram) {
+        long key = 0;
+        for (int i = 0; i < ngram.length(); i++)
+            key = (key << 16) | ngram.charAt(i);
+        return key;
+    }
+
+    private boolean modelIsEmpty() {
+        return (nodes.size() == 0) || (languages.length == 0);
+    }
+
+    /**
+     * converts graph of LIGA model (e.g. loaded from JSON with LIGA.loadModel)
+     *
+     * @param liga LIGA model
+     */
+    public void importModel(LIGA liga) {
+        dropModel();
+        TreeMap<String, TreeMap<String, Integer>> ligaNodes = liga.getNodes();
+        TreeMap<String, TreeMap<String, TreeMap<String, Integer>>> ligaEdges = liga.getEdges();
+        TreeMap<String, MutablePair<Integer, Integer>> ligaCounter = liga.getCounter();
+        if (ligaNodes.isEmpty() || ligaEdges.isEmpty() || ligaCounter.isEmpty())
+            return;
+
+        int n = ligaNodes.firstKey().length();
+        for (String ngram : ligaNodes.keySet()) {
+            if ((ngram.length() != n) || (n > MAX_NGRAM_LENGTH)) {
+                System.out.println("Unable to import model: n-grams of length " + n + " are not supported");
+                return;
+            }
+        }
+
+        // languages
+        Map<String, Integer> langIds = new TreeMap<>();
+        for (String lang : ligaCounter.keySet())
+            langIds.put(lang, langIds.size());
+        for (TreeMap<String, Integer> langCounts : ligaNodes.values())
+            for (String lang : langCounts.keySet())
+                if (!langIds.containsKey(lang)) langIds.put(lang, langIds.size());
+        int langs = langIds.size();
+        String[] newLanguages = new String[langs];
+        int[] newNodesTotal = new int[langs];
+        int[] newEdgesTotal = new int[langs];
+        for (Entry<String, Integer> lang : langIds.entrySet()) {
+            newLanguages[lang.getValue()] = lang.getKey();
+            MutablePair<Integer, Integer> count = ligaCounter.get(lang.getKey());
+            if (count != null) {
+                newNodesTotal[lang.getValue()] = count.getLeft();
+                newEdgesTotal[lang.getValue()] = count.getRight();
+            }
+        }
+
+        // nodes
+        LongIntTable newNodes = new LongIntTable(ligaNodes.size());
+        int[] newNodeCounts = new int[ligaNodes.size() * langs];
+        Arrays.fill(newNodeCounts, ABSENT);
+        for (Entry<String, TreeMap<String, Integer>> node : ligaNodes.entrySet()) {
+            int id = newNodes.size();
+            newNodes.put(packNgram(node.getKey()), id);
+            for (Entry<String, Integer> count : node.getValue().entrySet())
+                newNodeCounts[id * langs + langIds.get(count.getKey())] = count.getValue();
+        }
+
+        // edges (only edges of existing nodes are reachable)
+        int edgesNum = 0;
+        for (Entry<String, TreeMap<String, TreeMap<String, Integer>>> source : ligaEdges.entrySet())
+            if (ligaNodes.containsKey(source.getKey()))
+                for (String target : source.getValue().keySet())
+                    if (ligaNodes.containsKey(target)) edgesNum++;
+        LongIntTable newEdges = new LongIntTable(edgesNum);
+        int[] newEdgeCounts = new int[edgesNum * langs];
+        Arrays.fill(newEdgeCounts, ABSENT);
+        for (Entry<String, TreeMap<String, TreeMap<String, Integer>>> source : ligaEdges.entrySet()) {
+            int sourceId = newNodes.get(packNgram(source.getKey()));
+            if (sourceId < 0) continue;
+            for (Entry<String, TreeMap<String, Integer>> target : source.getValue().entrySet()) {
+                int targetId = newNodes.get(packNgram(target.getKey()));
+                if (targetId < 0) continue;
+                int id = newEdges.size();
+                newEdges.put(((long) sourceId << 32) | targetId, id);
+                for (Entry<String, Integer> count : target.getValue().entrySet()) {
+                    Integer lang = langIds.get(count.getKey());
+                    if (lang == null) continue;
+                    newEdgeCounts[id * langs + lang] = count.getValue();
+                }
+            }
+        }
+
+        this.ngramLength = n;
+        this.languages = newLanguages;
+        this.nodesTotal = newNodesTotal;
+        this.edgesTotal = newEdgesTotal;
+        this.nodes = newNodes;
+        this.nodeCounts = newNodeCounts;
+        this.edges = newEdges;
+        this.edgeCounts = newEdgeCounts;
+    }
+
+    /**
+     * imports LIGA's JSON model (e.g. model_n3.liga)
+     *
+     * @param path path to JSON model
+     */
+    public void importModel(String path) {
+        LIGA liga = new LIGA.LIGABuilder(threshold).build();
+        liga.loadModel(path);
+        importModel(liga);
+    }
+
+    /**
+     * loads binary model from the file (the file is memory-mapped, drops old model)
+     *
+     * @param path path to the model
+     */
+    public void loadModel(String path) {
+        dropModel();
+        try (FileChannel channel = new RandomAccessFile(path, "r").getChannel()) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if ((buf.getInt() != MAGIC) || (buf.getInt() != VERSION)) {
+                System.out.println("Unable to load model: unknown format");
+                return;
+            }
+            int n = buf.getInt();
+            int langs = buf.getInt();
+            String[] newLanguages = new String[langs];
+            int[] newNodesTotal = new int[langs];
+            int[] newEdgesTotal = new int[langs];
+            for (int l = 0; l < langs; l++) {
+                char[] name = new char[buf.getShort()];
+                buf.asCharBuffer().get(name);
+                buf.position(buf.position() + 2 * name.length);
+                newLanguages[l] = new String(name);
+                newNodesTotal[l] = buf.getInt();
+                newEdgesTotal[l] = buf.getInt();
+            }
+            LongIntTable newNodes = LongIntTable.read(buf);
+            int[] newNodeCounts = readInts(buf, newNodes.size() * langs);
+            LongIntTable newEdges = LongIntTable.read(buf);
+            int[] newEdgeCounts = readInts(buf, newEdges.size() * langs);
+
+            this.ngramLength = n;
+            this.languages = newLanguages;
+            this.nodesTotal = newNodesTotal;
+            this.edgesTotal = newEdgesTotal;
+            this.nodes = newNodes;
+            this.nodeCounts = newNodeCounts;
+            this.edges = newEdges;
+            this.edgeCounts = newEdgeCounts;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Unable to load model");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * saves binary model to file
+     *
+     * @param path filepath
+     */
+    public void saveModel(String path) {
+        if (modelIsEmpty())
+            return;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ngramLength);
+            out.writeInt(languages.length);
+            for (int l = 0; l < languages.length; l++) {
+                out.writeShort(languages[l].length());
+                out.writeChars(languages[l]);
+                out.writeInt(nodesTotal[l]);
+                out.writeInt(edgesTotal[l]);
+            }
+            nodes.write(out);
+            for (int count : nodeCounts)
+                out.writeInt(count);
+            edges.write(out);
+            for (int count : edgeCounts)
+                out.writeInt(count);
+        } catch (IOException e) {
+            System.out.println("Unable to save model");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * reads int array from buffer
+     *
+     * @param buf buffer
+     * @param n   number of ints
+     */
+    private static int[] readInts(ByteBuffer buf, int n) {
+        int[] arr = new int[n];
+        buf.asIntBuffer().get(arr);
+        buf.position(buf.position() + 4 * n);
+        return arr;
+    }
+
+    /**
+     * drops the model
+     */
+    public void dropModel() {
+        ngramLength = 0;
+        languages = new String[0];
+        nodesTotal = new int[0];
+        edgesTotal = new int[0];
+        nodes = new LongIntTable(0);
+        nodeCounts = new int[0];
+        edges = new LongIntTable(0);
+        edgeCounts = new int[0];
+    }
+
+    /**
+     * Open addressing hash table long -> non-negative int (linear probing)
+     */
+    private static class LongIntTable {
+
+        private long[] keys;
+        private int[] values; // ABSENT - empty slot
+        private int size;
+        private int mask;
+
+        LongIntTable(int expected) {
+            int capacity = 2;
+            while (capacity < 2 * expected) capacity <<= 1;
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+            Arrays.fill(values, ABSENT);
+            this.mask = capacity - 1;
+            this.size = 0;
+        }
+
+        private LongIntTable(long[] keys, int[] values, int size) {
+            this.keys = keys;
+            this.values = values;
+            this.size = size;
+            this.mask = keys.length - 1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /**
+         * returns value of the key or ABSENT
+         */
+        int get(long key) {
+            int i = hash(key) & mask;
+            while (values[i] != ABSENT) {
+                if (keys[i] == key) return values[i];
+                i = (i + 1) & mask;
+            }
+            return ABSENT;
+        }
+
+        /**
+         * puts new key (table is sized for all the keys in constructor)
+         */
+        void put(long key, int value) {
+            int i = hash(key) & mask;
+            while (values[i] != ABSENT) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(keys.length);
+            out.writeInt(size);
+            for (long key : keys)
+                out.writeLong(key);
+            for (int value : values)
+                out.writeInt(value);
+        }
+
+        static LongIntTable read(ByteBuffer buf) {
+            int capacity = buf.getInt();
+            int size = buf.getInt();
+            if ((capacity & (capacity - 1)) != 0)
+                throw new IllegalStateException("Corrupted model: table capacity " + capacity);
+            long[] keys = new long[capacity];
+            buf.asLongBuffer().get(keys);
+            buf.position(buf.position() + 8 * capacity);
+            return new LongIntTable(keys, readInts(buf, capacity), size);
+        }
+    }
+
+    public static class CompactLIGABuilder {
+
+        // confidence threshold (if lower - language is still UNKNOWN)
+        private double threshold;
+        // max search depth, 0 or less - whole document
+        private int maxSearchDepth = 0;
+        // early exit confidence, 0 - disabled
+        private double earlyExitConfidence = 0;
+        // flag of model, if true - logLIGA, false - LIGA
+        private boolean logLIGA = true;
+
+        /**
+         * limits the number of visited n-grams to maxSearchDepth + 1
+         *
+         * @param maxSearchDepth max search depth, 0 or less - unlimited (default)
+         */
+        public CompactLIGABuilder setMaxSearchDepth(int maxSearchDepth) {
+            this.maxSearchDepth = maxSearchDepth;
+            return this;
+        }
+
+        /**
+         * stops path matching, when the best language is decisive (see LIGA.LIGABuilder.setEarlyExitConfidence)
+         *
+         * @param earlyExitConfidence 1 - the best language is the same as without early exit, 0 - disabled
+         */
+        public CompactLIGABuilder setEarlyExitConfidence(double earlyExitConfidence) {
+            this.earlyExitConfidence = earlyExitConfidence;
+            return this;
+        }
+
+        public CompactLIGABuilder setLogLIGA(boolean logLIGA) {
+            this.logLIGA = logLIGA;
+            return this;
+        }
+
+        /**
+         * builder
+         */
+        public CompactLIGABuilder(double threshold) {
+            this.threshold = threshold;
+        }
+
+        public CompactLIGA build() {
+            return new CompactLIGA(this);
+        }
+    }
+
+}
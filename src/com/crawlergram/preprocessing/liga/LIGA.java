@@ -33,10 +33,14 @@ public class LIGA {
 
     // confidence threshold (if lower - language is still UNKNOWN)
     private double threshold = 0.0125;
-    // max recursive search depth
-    private int maxSearchDepth = 1000;
+    // max search depth (number of visited n-grams - 1), 0 or less - whole document
+    private int maxSearchDepth = 0;
+    // early exit confidence (0 - disabled, 1 - the best language can't change anymore, less - more aggressive)
+    private double earlyExitConfidence = 0;
     // flag of model, if true - logLIGA, false - LIGA
     private boolean logLIGA = true;
+    // languages and their totals for scoring, built on demand (null - model was changed)
+    private volatile LanguageIndex languageIndex = null;
     // tree maps - we don't know how many items, natural order -> more readable, adequate memory distribution, O(log(n))
     private TreeMap<String, TreeMap<String, Integer>> nodes = new TreeMap<>();
     private TreeMap<String, TreeMap<String, TreeMap<String, Integer>>> edges = new TreeMap<>();
@@ -58,6 +62,14 @@ public class LIGA {
         this.maxSearchDepth = maxSearchDepth;
     }
 
+    public double getEarlyExitConfidence() {
+        return earlyExitConfidence;
+    }
+
+    public void setEarlyExitConfidence(double earlyExitConfidence) {
+        this.earlyExitConfidence = earlyExitConfidence;
+    }
+
     public boolean isLogLIGA() {
         return logLIGA;
     }
@@ -81,6 +93,7 @@ public class LIGA {
     public LIGA(LIGABuilder builder){
         this.threshold = builder.threshold;
         this.maxSearchDepth = builder.maxSearchDepth;
+        this.earlyExitConfidence = builder.earlyExitConfidence;
         this.logLIGA = builder.logLIGA;
     }
 
@@ -129,6 +142,7 @@ public class LIGA {
 
                 previousNgram = ngram;
             }
+            languageIndex = null;
         }
     }
 
@@ -139,7 +153,7 @@ public class LIGA {
      * @param ngramLength ngram length
      */
     private List<String> getNgrams(String doc, int ngramLength) {
-        List<String> out = new LinkedList<>();
+        List<String> out = new ArrayList<>();
         // number of ngrams
         int num = doc.length() - (ngramLength - 1);
         // if ngrams available
@@ -205,92 +219,206 @@ public class LIGA {
     }
 
     /**
-     * Recursive path matching function
+     * Path matching: walks the n-grams once, scores of nodes (and edges to the next n-gram) are added
+     * to the language totals step by step. Stops after maxSearchDepth + 1 n-grams (if maxSearchDepth > 0)
+     * or when the leading language is decisive (if earlyExitConfidence > 0).
      *
-     * @param path     path of ngrams
-     * @param counts   map with current scores
-     * @param depth    current depth of recursion
-     * @param maxDepth max allowed depth of recursion
+     * @param ngrams n-grams of the document
      */
-    private List<Map<String, MutablePair<Integer, Integer>>> recPathMatching(List<String> path,
-                                                                             List<Map<String, MutablePair<Integer, Integer>>> counts,
-                                                                             Integer depth, Integer maxDepth) {
-        if (depth > maxDepth || path.size() == 0)
-            return counts; // Done traversing, return accumulator
-        else if (path.size() == 1) {
+    private Map<String, Double> matchPath(List<String> ngrams) {
+        return matchPath(ngrams, new PathScores(getLanguageIndex()));
+    }
 
-            HashMap<String, MutablePair<Integer, Integer>> ngramCounts = new HashMap<>();
+    /**
+     * Path matching with reusable score arrays
+     *
+     * @param ngrams n-grams of the document
+     * @param scores score arrays (are reset)
+     */
+    private Map<String, Double> matchPath(List<String> ngrams, PathScores scores) {
+        LanguageIndex index = scores.index;
+        int langs = index.languages.length;
+        double[] total = scores.total;
+        int[] stepNodes = scores.stepNodes;
+        int[] stepEdges = scores.stepEdges;
+        int[] lastStep = scores.lastStep;
+        Arrays.fill(total, 0d);
+        Arrays.fill(lastStep, 0);
+
+        int num = ngrams.size();
+        int steps = (maxSearchDepth > 0) ? (int) Math.min(num, (long) maxSearchDepth + 1) : num;
+        for (int i = 0; i < steps; i++) {
+            String source = ngrams.get(i);
+            TreeMap<String, Integer> nodeCounts = nodes.get(source);
+            if (nodeCounts == null)
+                continue;
+            int step = i + 1;
+            for (Entry<String, Integer> langCounts : nodeCounts.entrySet()) {
+                int l = index.ids.get(langCounts.getKey());
+                if (lastStep[l] != step) {
+                    lastStep[l] = step;
+                    stepNodes[l] = 0;
+                    stepEdges[l] = 0;
+                }
+                stepNodes[l] += langCounts.getValue();
+            }
+            // the last n-gram has no outgoing edge
+            if (i + 1 < num) {
+                TreeMap<String, TreeMap<String, Integer>> targets = edges.get(source);
+                TreeMap<String, Integer> edgeCounts = (targets != null) ? targets.get(ngrams.get(i + 1)) : null;
+                if (edgeCounts != null) {
+                    for (Entry<String, Integer> langCounts : edgeCounts.entrySet()) {
+                        int l = index.ids.get(langCounts.getKey());
+                        if (lastStep[l] != step) {
+                            lastStep[l] = step;
+                            stepNodes[l] = 0;
+                            stepEdges[l] = 0;
+                        }
+                        stepEdges[l] += langCounts.getValue();
+                    }
+                }
+            }
+            for (int l = 0; l < langs; l++)
+                if (lastStep[l] == step)
+                    total[l] = total[l] + calcScore(stepNodes[l], index.nodesTotal[l], index.logNodesTotal[l])
+                            + calcScore(stepEdges[l], index.edgesTotal[l], index.logEdgesTotal[l]);
+            if ((earlyExitConfidence > 0) && isDecisive(total, steps - step, earlyExitConfidence))
+                break;
+        }
 
-            String ngram = path.get(0);
-            // There is just one node left, just count node and disregard edges
-            if (nodes.containsKey(ngram))
-                countNodes(ngram, ngramCounts);
+        Map<String, Double> result = new HashMap<>();
+        for (int l = 0; l < langs; l++)
+            if (lastStep[l] > 0)
+                result.put(index.languages[l], total[l]);
+        return result;
+    }
 
-            if (!ngramCounts.isEmpty())
-                counts.add(ngramCounts);
+    /**
+     * Reusable arrays for path matching of one thread
+     */
+    private static class PathScores {
+
+        private LanguageIndex index;
+        private double[] total; // scores of languages
+        private int[] stepNodes; // node counts of the current step
+        private int[] stepEdges; // edge counts of the current step
+        private int[] lastStep; // last step, in which language was found (0 - not found)
+
+        PathScores(LanguageIndex index) {
+            int langs = index.languages.length;
+            this.index = index;
+            this.total = new double[langs];
+            this.stepNodes = new int[langs];
+            this.stepEdges = new int[langs];
+            this.lastStep = new int[langs];
+        }
+    }
 
-            return counts;
+    /**
+     * normalized count for LIGA or logLIGA
+     *
+     * @param count    count of step
+     * @param total    total count of language
+     * @param logTotal log of total count of language
+     */
+    private double calcScore(int count, int total, double logTotal) {
+        if (logLIGA) {
+            if ((count > 0) && (total > 0))
+                return Math.log(count) / logTotal;
+            return 0d;
         } else {
+            return (double) count / (double) total;
+        }
+    }
 
-            HashMap<String, MutablePair<Integer, Integer>> ngramCounts = new HashMap<>();
-
-            // Get source and target
-            String source = path.get(0);
-            String target = path.get(1);
-
-            // First we update scores for the source node
-            if (nodes.containsKey(source)) {
-                countNodes(source, ngramCounts);
-                countEdges(source, target, ngramCounts);
+    /**
+     * Checks if the leading language can't be overtaken anymore. Each step adds at most 1 for node
+     * and 1 for edge (LIGA and logLIGA), so the lead must exceed 2 * remaining steps * confidence.
+     *
+     * @param total      current scores of languages
+     * @param remaining  number of remaining steps
+     * @param confidence confidence (1 - the best language is guaranteed, less - more aggressive)
+     */
+    static boolean isDecisive(double[] total, int remaining, double confidence) {
+        double best = Double.NEGATIVE_INFINITY;
+        double second = Double.NEGATIVE_INFINITY;
+        for (double score : total) {
+            if (score > best) {
+                second = best;
+                best = score;
+            } else if (score > second) {
+                second = score;
             }
-
-            if (!ngramCounts.isEmpty())
-                counts.add(ngramCounts);
-
-            // Recurse with the trailing path
-            path.remove(0);
-            return recPathMatching(path, counts, ++depth, maxDepth);
         }
+        if (second == Double.NEGATIVE_INFINITY)
+            second = 0d;
+        return (best - second) > 2d * remaining * confidence;
     }
 
     /**
-     * Counts nodes
-     *
-     * @param ngram  node
-     * @param counts map for counts
+     * returns languages index of the model, builds it if necessary (thread-safe)
      */
-    private void countNodes(String ngram, HashMap<String, MutablePair<Integer, Integer>> counts) {
-        for (Entry<String, Integer> langCounts : nodes.get(ngram).entrySet()) {
-            String language = langCounts.getKey();
-            Integer cnt = langCounts.getValue();
-            // Update score
-            if (!counts.containsKey(language))
-                counts.put(language, new MutablePair<Integer, Integer>(0, 0));
-            counts.put(language, MutablePair.of(counts.get(language).getLeft() + cnt, counts.get(language).getRight()));
+    private LanguageIndex getLanguageIndex() {
+        LanguageIndex index = languageIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = languageIndex;
+                if (index == null) {
+                    index = new LanguageIndex(nodes, edges, counter);
+                    languageIndex = index;
+                }
+            }
         }
+        return index;
     }
 
     /**
-     * Counts edges
-     *
-     * @param source source ngram
-     * @param target target ngram
-     * @param counts map for counts
+     * Languages of the model (as ints) and their total counts
      */
-    private void countEdges(String source, String target, HashMap<String, MutablePair<Integer, Integer>> counts) {
-        if (edges.containsKey(source)) {
-            if (edges.get(source).containsKey(target)) {
-                // Add up scores
-                for (Entry<String, Integer> langCounts : edges.get(source).get(target).entrySet()) {
-                    String language = langCounts.getKey();
-                    Integer cnt = langCounts.getValue();
-                    // Update score
-                    if (!counts.containsKey(language))
-                        counts.put(language, new MutablePair<Integer, Integer>(0, 0));
-                    counts.put(language, MutablePair.of(counts.get(language).getLeft(), counts.get(language).getRight() + cnt));
+    private static class LanguageIndex {
+
+        private Map<String, Integer> ids = new HashMap<>(); // language -> ID
+        private String[] languages; // ID -> language
+        private int[] nodesTotal; // total number of nodes for language
+        private int[] edgesTotal; // total number of edges for language
+        private double[] logNodesTotal; // log of total number of nodes
+        private double[] logEdgesTotal; // log of total number of edges
+
+        LanguageIndex(TreeMap<String, TreeMap<String, Integer>> nodes,
+                      TreeMap<String, TreeMap<String, TreeMap<String, Integer>>> edges,
+                      TreeMap<String, MutablePair<Integer, Integer>> counter) {
+            for (String lang : counter.keySet())
+                addLanguage(lang);
+            for (TreeMap<String, Integer> langCounts : nodes.values())
+                for (String lang : langCounts.keySet())
+                    addLanguage(lang);
+            for (TreeMap<String, TreeMap<String, Integer>> targets : edges.values())
+                for (TreeMap<String, Integer> langCounts : targets.values())
+                    for (String lang : langCounts.keySet())
+                        addLanguage(lang);
+            int langs = ids.size();
+            languages = new String[langs];
+            nodesTotal = new int[langs];
+            edgesTotal = new int[langs];
+            logNodesTotal = new double[langs];
+            logEdgesTotal = new double[langs];
+            for (Entry<String, Integer> lang : ids.entrySet()) {
+                int l = lang.getValue();
+                languages[l] = lang.getKey();
+                MutablePair<Integer, Integer> count = counter.get(lang.getKey());
+                if (count != null) {
+                    nodesTotal[l] = count.getLeft();
+                    edgesTotal[l] = count.getRight();
                 }
+                logNodesTotal[l] = Math.log(nodesTotal[l]);
+                logEdgesTotal[l] = Math.log(edgesTotal[l]);
             }
         }
+
+        private void addLanguage(String lang) {
+            if (!ids.containsKey(lang))
+                ids.put(lang, ids.size());
+        }
     }
 
     /**
@@ -309,11 +437,8 @@ public class LIGA {
             // Get all N-grams into a list
             List<String> ngrams = getNgrams(doc, ngramLength);
 
-            // Get counts
-            List<Map<String, MutablePair<Integer, Integer>>> counts = recPathMatching(ngrams, new ArrayList<>(), 0, maxSearchDepth);
-
             // Calculate scores
-            Map<String, Double> scores = calcScores(counts);
+            Map<String, Double> scores = matchPath(ngrams);
 
             // Get the best score or return unknown
             for (Entry<String, Double> score : scores.entrySet()) {
@@ -345,76 +470,30 @@ public class LIGA {
             // Get all N-grams into a list
             List<String> ngrams = getNgrams(doc, ngramLength);
 
-            // Get counts
-            List<Map<String, MutablePair<Integer, Integer>>> counts = recPathMatching(ngrams, new ArrayList<>(), 0, maxSearchDepth);
-
             // Calculate scores
-            scores = calcScores(counts);
+            scores = matchPath(ngrams);
         }
         return scores;
     }
 
     /**
-     * Calculates scores for LIGA or logLIGA
+     * Gets scores for a batch of documents (score arrays are allocated once per batch).
+     * The model is only read, several threads can classify batches at the same time.
      *
-     * @param counts counts
+     * @param docs        documents
+     * @param ngramLength n
      */
-    private Map<String, Double> calcScores(List<Map<String, MutablePair<Integer, Integer>>> counts) {
-        if (logLIGA){
-            return calcScoresLogLIGA(counts);
+    public List<Map<String, Double>> classifyBatch(List<String> docs, int ngramLength){
+        List<Map<String, Double>> scores = new ArrayList<>(docs.size());
+        if (modelIsNotEmpty()) {
+            PathScores pathScores = new PathScores(getLanguageIndex());
+            for (String doc : docs)
+                scores.add(matchPath(getNgrams(doc, ngramLength), pathScores));
         } else {
-            return calcScoresLIGA(counts);
-        }
-        //Map<String, Double> scores = new HashMap<>();
-    }
-
-    private Map<String, Double> calcScoresLIGA(List<Map<String, MutablePair<Integer, Integer>>> counts) {
-        Map<String, Double> total = new HashMap<>();
-
-        for (Map<String, MutablePair<Integer, Integer>> countMap: counts){
-            for (Entry<String, MutablePair<Integer, Integer>> count : countMap.entrySet()){
-                String lang = count.getKey(); // language
-                Integer nodes = count.getValue().getLeft(); // nodes count for language
-                Integer edges = count.getValue().getRight(); // edges count for language
-                Integer nodesTotal = counter.get(lang).getLeft(); // total number of nodes for language
-                Integer edgesTotal = counter.get(lang).getRight(); // total number of edges for language
-
-                double nodesNormalized = (double) nodes / (double) nodesTotal;
-                double edgesNormalized = (double) edges / (double) edgesTotal;
-
-                if (!total.containsKey(lang))
-                    total.put(lang, 0d);
-                total.put(lang, total.get(lang) + nodesNormalized + edgesNormalized);
-            }
+            for (int i = 0; i < docs.size(); i++)
+                scores.add(new HashMap<>());
         }
-        return total;
-    }
-
-    private Map<String, Double> calcScoresLogLIGA(List<Map<String, MutablePair<Integer, Integer>>> counts) {
-        Map<String, Double> total = new HashMap<>();
-
-        for (Map<String, MutablePair<Integer, Integer>> countMap: counts){
-            for (Entry<String, MutablePair<Integer, Integer>> count : countMap.entrySet()){
-                String lang = count.getKey(); // language
-                Integer nodes = count.getValue().getLeft(); // nodes count for language
-                Integer edges = count.getValue().getRight(); // edges count for language
-                Integer nodesTotal = counter.get(lang).getLeft(); // total number of nodes for language
-                Integer edgesTotal = counter.get(lang).getRight(); // total number of edges for language
-
-                double nodesLogNormalized = 0d;
-                double edgesLogNormalized = 0d;
-
-                if ((nodes > 0) && (nodesTotal > 0))
-                    nodesLogNormalized = Math.log(nodes) / Math.log(nodesTotal);
-                if ((edges > 0) && (edgesTotal > 0))
-                    edgesLogNormalized = Math.log(edges) / Math.log(edgesTotal);
-
-                if (!total.containsKey(lang))
-                    total.put(lang, 0d);
-                total.put(lang, total.get(lang) + nodesLogNormalized + edgesLogNormalized);
-            }
-        }
-        return total;
+        return scores;
     }
 
     /**
@@ -470,6 +549,7 @@ public class LIGA {
                 }
             }
             jParser.close();
+            languageIndex = null;
         } catch (Exception e) {
             System.out.println("Unable to load model");
             e.printStackTrace();
@@ -640,6 +720,7 @@ public class LIGA {
         nodes.clear();
         edges.clear();
         counter.clear();
+        languageIndex = null;
     }
 
 
@@ -738,16 +819,34 @@ public class LIGA {
 
         // confidence threshold (if lower - language is still UNKNOWN)
         private double threshold;
-        // max recursive search depth
-        private int maxSearchDepth = 1000;
+        // max search depth, 0 or less - whole document
+        private int maxSearchDepth = 0;
+        // early exit confidence, 0 - disabled
+        private double earlyExitConfidence = 0;
         // flag of model, if true - logLIGA, false - LIGA
         private boolean logLIGA = true;
 
+        /**
+         * limits the number of visited n-grams to maxSearchDepth + 1
+         *
+         * @param maxSearchDepth max search depth, 0 or less - unlimited (default)
+         */
         public LIGABuilder setMaxSearchDepth(int maxSearchDepth) {
             this.maxSearchDepth = maxSearchDepth;
             return this;
         }
 
+        /**
+         * stops path matching, when the lead of the best language is larger than 2 * remaining steps * confidence
+         * (the scores of the remaining steps are not added)
+         *
+         * @param earlyExitConfidence 1 - the best language is the same as without early exit, less - faster, 0 - disabled
+         */
+        public LIGABuilder setEarlyExitConfidence(double earlyExitConfidence) {
+            this.earlyExitConfidence = earlyExitConfidence;
+            return this;
+        }
+
         public LIGABuilder setLogLIGA(boolean logLIGA) {
             this.logLIGA = logLIGA;
             return this;
@@ -0,0 +1,232 @@
+/*
+ * Title: LanguageCache.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.preprocessing.models;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of language identification results, keyed by message's clear text.
+ * Chats contain a lot of repeated short messages ("ok", "+1", bot commands, forwards), they are classified once.
+ * The cache is split into segments (by text hash) with their own locks, so it can be shared by dialogs and threads.
+ * Each segment is limited by number of entries and by estimated memory size.
+ */
+public class LanguageCache {
+
+    final private static int ENTRY_OVERHEAD = 128; // entry, key String and TreeMap objects (bytes, rough estimation)
+    final private static int LANG_OVERHEAD = 80; // one language of the result (bytes, rough estimation)
+
+    private final Segment[] segments;
+    private final int maxTextLength; // longer texts are not cached
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * returns cached languages of the text or null
+     *
+     * @param text clear text
+     */
+    public Map<String, Double> get(String text) {
+        if (text.length() > maxTextLength) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Map<String, Double> langs = segmentFor(text).get(text);
+        if (langs == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return langs;
+    }
+
+    /**
+     * counts a hit of the text, which is served without the lookup (repeat of a missed text of the same batch)
+     */
+    void countHit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * caches languages of the text, returns the cached (read-only) map
+     *
+     * @param text  clear text
+     * @param langs languages
+     */
+    public Map<String, Double> put(String text, Map<String, Double> langs) {
+        Map<String, Double> value = Collections.unmodifiableMap(langs);
+        if (text.length() <= maxTextLength)
+            segmentFor(text).put(text, value);
+        return value;
+    }
+
+    public void clear() {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return (total == 0) ? 0 : (double) hits.get() / total;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.size();
+        return size;
+    }
+
+    /**
+     * estimated memory size of cached entries (bytes)
+     */
+    public long getMemorySize() {
+        long bytes = 0;
+        for (Segment segment : segments)
+            bytes += segment.bytes();
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "LanguageCache{entries=" + size() + ", bytes=" + getMemorySize() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+                + ", hitRate=" + String.format("%.3f", getHitRate()) + "}";
+    }
+
+    private Segment segmentFor(String text) {
+        int h = text.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * estimated memory size of the entry (bytes)
+     */
+    private static long estimateSize(String text, Map<String, Double> langs) {
+        return ENTRY_OVERHEAD + 2L * text.length() + (long) LANG_OVERHEAD * langs.size();
+    }
+
+    /**
+     * LRU part of the cache (access-ordered LinkedHashMap), guarded by itself
+     */
+    private class Segment {
+
+        private final LinkedHashMap<String, Map<String, Double>> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxEntries;
+        private final long maxBytes;
+        private long bytes = 0; // estimated size of entries
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Map<String, Double> get(String text) {
+            return map.get(text);
+        }
+
+        synchronized void put(String text, Map<String, Double> langs) {
+            long size = estimateSize(text, langs);
+            if (size > maxBytes) return;
+            Map<String, Double> old = map.put(text, langs);
+            if (old != null) bytes -= estimateSize(text, old);
+            bytes += size;
+            // removes least recently used entries
+            while ((map.size() > maxEntries) || (bytes > maxBytes)) {
+                Map.Entry<String, Map<String, Double>> eldest = map.entrySet().iterator().next();
+                bytes -= estimateSize(eldest.getKey(), eldest.getValue());
+                map.remove(eldest.getKey());
+                evictions.incrementAndGet();
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            bytes = 0;
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+
+    public LanguageCache(LanguageCacheBuilder builder) {
+        this.maxTextLength = builder.maxTextLength;
+        int concurrency = Math.max(1, Math.min(builder.concurrency, builder.maxEntries));
+        this.segments = new Segment[concurrency];
+        for (int i = 0; i < concurrency; i++)
+            segments[i] = new Segment(Math.max(1, builder.maxEntries / concurrency), builder.maxBytes / concurrency);
+    }
+
+    public static class LanguageCacheBuilder {
+        private int maxEntries = 100000;
+        private long maxBytes = 64L * 1024 * 1024;
+        private int maxTextLength = 1000;
+        private int concurrency = 16;
+
+        /**
+         * @param maxEntries max number of cached texts
+         */
+        public LanguageCacheBuilder setMaxEntries(int maxEntries) {
+            this.maxEntries = Math.max(1, maxEntries);
+            return this;
+        }
+
+        /**
+         * @param maxBytes memory budget of the cache (bytes, estimated)
+         */
+        public LanguageCacheBuilder setMaxBytes(long maxBytes) {
+            this.maxBytes = Math.max(0, maxBytes);
+            return this;
+        }
+
+        /**
+         * @param maxTextLength longer texts are not cached (long texts are rarely repeated)
+         */
+        public LanguageCacheBuilder setMaxTextLength(int maxTextLength) {
+            this.maxTextLength = maxTextLength;
+            return this;
+        }
+
+        /**
+         * @param concurrency number of independently locked segments
+         */
+        public LanguageCacheBuilder setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public LanguageCacheBuilder() {}
+
+        public LanguageCache build() {
+            return new LanguageCache(this);
+        }
+    }
+
+}
@@ -9,51 +9,245 @@ package com.crawlergram.preprocessing.models;
 
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.TMessage;
+import com.crawlergram.preprocessing.liga.CompactLIGA;
 import com.crawlergram.preprocessing.liga.LIGA;
 import org.apache.tika.language.detect.LanguageDetector;
 import org.apache.tika.language.detect.LanguageResult;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
 public class LanguageIdentificator implements PreprocessorModel {
 
-    private static Object langModel;
+    private final Object langModel;
+    private int parallelism; // number of threads for a single dialog (1 - sequential)
+    private int batchSize; // min number of messages, classified by one task
+    private ForkJoinPool pool; // pool for parallel mode (null - sequential)
+    private LanguageCache cache; // cache of results (null - no caching)
 
     /**
-     * Indentifies languages for each message_old
+     * Indentifies languages for each message_old.
+     * LIGA (and CompactLIGA) is only read during classification and can be shared by several threads,
+     * Tika's detector keeps the text of the current detection, so its calls are serialized.
      */
     @Override
     public TDialog run(TDialog dialog) {
-        if (langModel instanceof LIGA) {
-            for (TMessage msg : dialog.getMessages())
-                msg.setLangs(((LIGA) langModel).classifyAll(msg.getClearText(), 3));
+        // unknown model - languages of messages are not changed
+        if (!isKnownModel())
+            return dialog;
+        List<TMessage> msgs = dialog.getMessages();
+        List<String> texts = new ArrayList<>(msgs.size());
+        for (TMessage msg : msgs)
+            texts.add(msg.getClearText());
+        List<Map<String, Double>> langs = classifyBatch(texts);
+        for (int i = 0; i < msgs.size(); i++)
+            if (langs.get(i) != null)
+                msgs.get(i).setLangs(langs.get(i));
+        return dialog;
+    }
+
+    /**
+     * true if the model is LIGA, CompactLIGA or Tika's detector
+     */
+    private boolean isKnownModel() {
+        return (langModel instanceof LIGA) || (langModel instanceof CompactLIGA)
+                || (langModel instanceof LanguageDetector);
+    }
+
+    /**
+     * Identifies languages of texts. Cached texts (and repeats inside of the batch) are not classified again.
+     * Entries are null for unknown model.
+     *
+     * @param texts texts
+     */
+    public List<Map<String, Double>> classifyBatch(List<String> texts) {
+        if (!isKnownModel())
+            return new ArrayList<>(Collections.nCopies(texts.size(), null));
+        if (cache == null)
+            return classifyUncached(texts);
+        List<Map<String, Double>> langs = new ArrayList<>(texts.size());
+        Map<String, Integer> missIndex = new HashMap<>(); // text -> index in misses
+        List<String> misses = new ArrayList<>();
+        for (String text : texts) {
+            Map<String, Double> lang = null;
+            if (missIndex.containsKey(text)) {
+                // repeat of a missed text is classified once too
+                cache.countHit();
+            } else {
+                lang = cache.get(text);
+                if (lang == null) {
+                    missIndex.put(text, misses.size());
+                    misses.add(text);
+                }
+            }
+            langs.add(lang);
         }
-        if ((langModel instanceof LanguageDetector)) {
-            for (TMessage msg : dialog.getMessages()) {
-                Map<String, Double> langs = new TreeMap<>();
-                LanguageResult result = ((LanguageDetector) langModel).detect(msg.getClearText());
-                if (!result.isUnknown()) {
-                    langs.put(result.getLanguage(), (double) result.getRawScore());
+        if (!misses.isEmpty()) {
+            List<Map<String, Double>> classified = classifyUncached(misses);
+            for (int i = 0; i < misses.size(); i++)
+                classified.set(i, cache.put(misses.get(i), classified.get(i)));
+            for (int i = 0; i < texts.size(); i++)
+                if (langs.get(i) == null)
+                    langs.set(i, classified.get(missIndex.get(texts.get(i))));
+        }
+        return langs;
+    }
+
+    /**
+     * Identifies languages of texts. In parallel mode LIGA models classify subsets of texts in the pool,
+     * results are written by index, so the output is the same as of the sequential mode.
+     *
+     * @param texts texts
+     */
+    private List<Map<String, Double>> classifyUncached(List<String> texts) {
+        if ((pool != null) && (texts.size() > batchSize) && !(langModel instanceof LanguageDetector)) {
+            List<Map<String, Double>> langs = new ArrayList<>(Collections.nCopies(texts.size(), null));
+            pool.invoke(new BatchTask(texts, langs, 0, texts.size()));
+            return langs;
+        }
+        return classifySequential(texts);
+    }
+
+    /**
+     * identifies languages of texts by the calling thread
+     *
+     * @param texts texts
+     */
+    private List<Map<String, Double>> classifySequential(List<String> texts) {
+        if (langModel instanceof LIGA)
+            return ((LIGA) langModel).classifyBatch(texts, 3);
+        if (langModel instanceof CompactLIGA) {
+            CompactLIGA liga = (CompactLIGA) langModel;
+            return liga.classifyBatch(texts, liga.getNgramLength());
+        }
+        List<Map<String, Double>> langs = new ArrayList<>(texts.size());
+        if (langModel instanceof LanguageDetector) {
+            // one lock per batch
+            synchronized (langModel) {
+                for (String text : texts) {
+                    Map<String, Double> lang = new TreeMap<>();
+                    LanguageResult result = ((LanguageDetector) langModel).detect(text);
+                    if (!result.isUnknown()) {
+                        lang.put(result.getLanguage(), (double) result.getRawScore());
+                    }
+                    langs.add(lang);
                 }
-                msg.setLangs(langs);
             }
+        } else {
+            // unknown model - languages are unknown (null)
+            for (int i = 0; i < texts.size(); i++)
+                langs.add(null);
         }
-        return dialog;
+        return langs;
     }
 
+    /**
+     * Splits texts in halves until subset is small enough, then classifies it
+     */
+    private class BatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private List<String> texts;
+        private List<Map<String, Double>> results; // pre-sized, each task sets its own range
+        private int from; // inclusive
+        private int to; // exclusive
+
+        BatchTask(List<String> texts, List<Map<String, Double>> results, int from, int to) {
+            this.texts = texts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                List<Map<String, Double>> langs = classifySequential(texts.subList(from, to));
+                for (int i = from; i < to; i++)
+                    results.set(i, langs.get(i - from));
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchTask(texts, results, from, mid), new BatchTask(texts, results, mid, to));
+            }
+        }
+    }
 
     public LanguageIdentificator(LanguageIdentificatorBuilder builder){
-        langModel = builder.langModel;
+        this.langModel = builder.langModel;
+        this.parallelism = builder.parallelism;
+        this.batchSize = builder.batchSize;
+        if (parallelism > 1)
+            this.pool = new ForkJoinPool(parallelism);
+        this.cache = builder.cache;
+    }
+
+    /**
+     * waits for the running tasks and stops the pool of parallel mode
+     */
+    public void shutdown() {
+        if (pool == null)
+            return;
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public LanguageCache getCache() {
+        return cache;
     }
 
     public static class LanguageIdentificatorBuilder {
         private Object langModel;
+        private int parallelism = 1;
+        private int batchSize = 256;
+        private LanguageCache cache = null;
+
+        /**
+         * results are cached by clear text, the cache can be shared by several identificators
+         * (they should use the same language model)
+         *
+         * @param cache cache of results (null - no caching)
+         */
+        public LanguageIdentificatorBuilder setCache(LanguageCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * messages of a dialog are classified in a fork-join pool (LIGA and CompactLIGA only,
+         * Tika's detector is not thread-safe and stays sequential)
+         *
+         * @param parallelism number of threads (1 - sequential)
+         */
+        public LanguageIdentificatorBuilder setParallelism(int parallelism) {
+            this.parallelism = Math.max(1, parallelism);
+            return this;
+        }
+
+        /**
+         * @param batchSize min number of messages, classified by one task of the pool
+         */
+        public LanguageIdentificatorBuilder setBatchSize(int batchSize) {
+            this.batchSize = Math.max(1, batchSize);
+            return this;
+        }
 
         /**
          * builder
          *
-         * @param langModel language model (LIGA or LanguageDetector)
+         * @param langModel language model (LIGA, CompactLIGA or LanguageDetector)
          */
         public LanguageIdentificatorBuilder(Object langModel) {
             this.langModel = langModel;
@@ -9,27 +9,32 @@ package com.crawlergram.preprocessing.models;
 
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.TMessage;
+import com.crawlergram.preprocessing.expfit.DeltaHistogram;
+import com.crawlergram.preprocessing.expfit.ExpFitter;
 import com.crawlergram.preprocessing.gaussnewton.ExpRegMethods;
-import com.crawlergram.preprocessing.gaussnewton.GaussNewton;
-import com.crawlergram.preprocessing.gaussnewton.NoSquareException;
 import com.crawlergram.structures.message_old.TMessageComparator;
 
 import java.util.*;
 
 public class MessageMerger implements PreprocessorModel {
 
-    private static int docThreshold; // default - 100 (see MessageMergerBuilder)
+    private int docThreshold; // default - 100 (see MessageMergerBuilder)
+    private ExpFitter fitter; // fitter of time deltas distribution
 
     public int getDocThreshold() {
         return docThreshold;
     }
 
+    /**
+     * should be set before the merger is shared by preprocessing workers
+     */
     public void setDocThreshold(int threshold) {
-        docThreshold = threshold;
+        this.docThreshold = threshold;
     }
 
     public MessageMerger(MessageMergerBuilder builder){
-        docThreshold = builder.docThreshold;
+        this.docThreshold = builder.docThreshold;
+        this.fitter = builder.fitter;
     }
 
 
@@ -56,7 +61,7 @@ public class MessageMerger implements PreprocessorModel {
     /**
      * merges (long snd short) chats to docs
      */
-    private static List<TMessage> mergeChat(TDialog dialog) {
+    private List<TMessage> mergeChat(TDialog dialog) {
         // if number of messages < docThreshold - short chat, else - long chat
         return (dialog.getMessages().size() < docThreshold) ? mergeShortChat(dialog) : mergeLongChat(dialog);
     }
@@ -64,8 +69,8 @@ public class MessageMerger implements PreprocessorModel {
     /**
      * merges short chat messages (number of messages < threshold) to one message_old
      */
-    private static List<TMessage> mergeShortChat(TDialog dialog) {
-        List<TMessage> merged = new LinkedList<>();
+    private List<TMessage> mergeShortChat(TDialog dialog) {
+        List<TMessage> merged = new ArrayList<>();
         StringBuilder text = new StringBuilder();
         for (TMessage message : dialog.getMessages()) {
             if (!message.getText().isEmpty()) {
@@ -83,90 +88,103 @@ public class MessageMerger implements PreprocessorModel {
     /**
      * merges long chat messages (number of messages > threshold) if they fit time interval
      */
-    private static List<TMessage> mergeLongChat(TDialog dialog) {
+    private List<TMessage> mergeLongChat(TDialog dialog) {
         Collections.sort(dialog.getMessages(), new TMessageComparator());
+        List<TMessage> msgs = dialog.getMessages();
         // get intervals between messages to array
-        List<Integer> dates = new ArrayList<>();
-        for (TMessage message : dialog.getMessages()) {
-            dates.add(message.getDate());
-        }
-        // deltas between intervals
-        List<Integer> deltas = ExpRegMethods.countDeltas(dates);
-        // unique deltas (sorted tree set)
-        Set<Integer> deltasUnique = new TreeSet<>(deltas);
-        // unique deltas counts
-        List<Integer> deltasUniqueCounts = ExpRegMethods.countUniqueDeltas(deltasUnique, deltas);
-
-        // Gauss-Newton implementation for fitting
-        GaussNewton gn = new GaussNewton() {
-            @Override
-            public double findY(double x, double[] b) {
-                return b[0] * Math.exp(-b[1] * x);
-            }
-        };
-
-        // values initialization and optimisation
-        double[] expModelInit = ExpRegMethods.expRegInitValues(ExpRegMethods.setToDoubles(deltasUnique), ExpRegMethods.listToDoubles(deltasUniqueCounts));
-        double[] expModel = new double[2];
-        try {
-            expModel = gn.optimise(ExpRegMethods.setToDoubles2D(deltasUnique), ExpRegMethods.listToDoubles(deltasUniqueCounts), expModelInit);
-        } catch (NoSquareException e) {
-            System.out.println(e.getMessage());
+        int[] dates = new int[msgs.size()];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = msgs.get(i).getDate();
         }
+        // unique deltas and their counts
+        DeltaHistogram histogram = new DeltaHistogram(dates);
+        // exponential fitting
+        double[] expModel = fitter.fit(histogram.getDeltas(), histogram.getCounts());
         int timeThreshold = (int) Math.ceil(ExpRegMethods.mathTimeThresholdCount(expModel[1], 0.01));
         // returns the list of merged documents
         return mergeByTime(dialog, timeThreshold);
     }
 
     /**
-     * concatenates messages to one, if delta time between them is lower than time threshold
+     * concatenates messages to one, if delta time between them is lower than time threshold.
+     * One pass over the sorted messages: the current document is accumulated in a StringBuilder
+     * and emitted when the next message doesn't fit the threshold.
      *
      * @param timeThreshold maximum time between messages in one doc
      */
-    private static List<TMessage> mergeByTime(TDialog dialog, int timeThreshold) {
+    private List<TMessage> mergeByTime(TDialog dialog, int timeThreshold) {
         if (timeThreshold <= 0) {
             return mergeShortChat(dialog);
         } else {
-            List<TMessage> mesCopy = new LinkedList<>(dialog.getMessages());
-            for (int i = 0; i < mesCopy.size() - 1; i++) {
-                // date of the current and next documents
-                TMessage d0 = mesCopy.get(i);
-                TMessage d1 = mesCopy.get(i + 1);
-                // threshold criterion
-                if (d0.getDate() - d1.getDate() <= timeThreshold) {
-                    mesCopy.set(i, new TMessage(d0.getId(), (d0.getText() + "\n" + d1.getText()).trim(), d0.getDate(), d0.getTokens(), d0.getLangs()));
-                    mesCopy.remove(i + 1);
-                    // returns i back each time, when we have merge of the messages, to check for multiple merges in row
-                    i--;
+            List<TMessage> msgs = dialog.getMessages();
+            List<TMessage> merged = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            int i = 0;
+            while (i < msgs.size()) {
+                // first message of the document (its id, date, tokens and langs are kept)
+                TMessage d0 = msgs.get(i++);
+                int count = 1;
+                // threshold criterion (delta to the first message of the document)
+                while ((i < msgs.size()) && (d0.getDate() - msgs.get(i).getDate() <= timeThreshold)) {
+                    if (count == 1) {
+                        text.setLength(0);
+                        text.append(d0.getText());
+                    }
+                    appendTrimmed(text, msgs.get(i++).getText());
+                    count++;
+                }
+                if (count == 1) {
+                    merged.add(d0);
+                } else {
+                    merged.add(new TMessage(d0.getId(), text.toString(), d0.getDate(), d0.getTokens(), d0.getLangs()));
                 }
             }
-            return mesCopy;
+            return merged;
         }
     }
 
+    /**
+     * appends "\n" + next to the text and trims the result (same as (text + "\n" + next).trim()).
+     * Text is already trimmed after the first append, so only its tail and the empty head are checked.
+     *
+     * @param text current document
+     * @param next text of the next message
+     */
+    private static void appendTrimmed(StringBuilder text, String next) {
+        text.append('\n').append(next);
+        int end = text.length();
+        while ((end > 0) && (text.charAt(end - 1) <= ' ')) end--;
+        text.setLength(end);
+        int start = 0;
+        while ((start < end) && (text.charAt(start) <= ' ')) start++;
+        if (start > 0) text.delete(0, start);
+    }
+
     /**
      * Removes empty messages from the list
      *
      * @param msgs messages list
      */
     public static List<TMessage> removeEmptyMessages(List<TMessage> msgs) {
-        for (int i = 0; i < msgs.size(); i++) {
-            if ((msgs.get(i).getText() == null) || msgs.get(i).getText().trim().isEmpty()) {
-                msgs.remove(i--);
-            }
-        }
+        msgs.removeIf(msg -> (msg.getText() == null) || msg.getText().trim().isEmpty());
         return msgs;
     }
 
     public static class MessageMergerBuilder {
 
         private int docThreshold = 100;
+        private ExpFitter fitter = new ExpFitter.ExpFitterBuilder().build();
 
         public MessageMergerBuilder setDocThreshold(int docThreshold) {
             this.docThreshold = docThreshold;
             return this;
         }
 
+        public MessageMergerBuilder setFitter(ExpFitter fitter) {
+            this.fitter = fitter;
+            return this;
+        }
+
         /**
          * builder
          */
@@ -0,0 +1,219 @@
+/*
+ * Title: SinglePassTokenizer.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.preprocessing.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Advanced tokenization engine. Splits the text with one character-class scan, filters and collapses
+ * char repeats in the same buffer, runs the (precompiled) unit patterns only for tokens starting with a digit
+ * and checks numbers without exceptions. Produces the same tokens as the regex cascade of Tokenizer.
+ */
+class SinglePassTokenizer {
+
+    final private static int BMP_SIZE = 0x10000;
+    final private static char MAX_CHAR = '\u1FFF'; // chars above are filtered (see Tokenizer.CHAR_FILTER)
+
+    // separators (whitespaces and punctuation), built from the Tokenizer patterns
+    final private static boolean[] SEPARATORS = buildSeparators();
+
+    // unit patterns, applied in the same order as in Tokenizer.compoundTokenEdit
+    final private static Pattern[] UNITS = {
+            Pattern.compile(Tokenizer.DATASIZES),
+            Pattern.compile(Tokenizer.SECONDS),
+            Pattern.compile(Tokenizer.HOURS),
+            Pattern.compile(Tokenizer.METERS),
+            Pattern.compile(Tokenizer.NUMBERS_SUP),
+            Pattern.compile(Tokenizer.TIME),
+            Pattern.compile(Tokenizer.HEX)};
+
+    final private static Pattern LINK = Pattern.compile(Tokenizer.LINK);
+    final private static Pattern HEX_NUMBER = Pattern.compile(
+            "0[xX](((\\p{XDigit}+)\\.?)|((\\p{XDigit}*)\\.(\\p{XDigit}+)))[pP]([-+])?(\\p{Digit}+)[fFdD]?");
+
+    private int minTokenLength;
+    private int maxTokenLength;
+
+    SinglePassTokenizer(int minTokenLength, int maxTokenLength) {
+        this.minTokenLength = minTokenLength;
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    /**
+     * Tokenizes text to list of strings
+     *
+     * @param text original text
+     */
+    List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        char[] buf = new char[text.length()];
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            // skips separators
+            while ((i < len) && SEPARATORS[text.charAt(i)]) i++;
+            int start = i;
+            boolean plain = true; // piece doesn't need lowercasing
+            while ((i < len) && !SEPARATORS[text.charAt(i)]) {
+                char c = text.charAt(i);
+                if (plain && (Character.isSurrogate(c) || (Character.toLowerCase(c) != c))) plain = false;
+                i++;
+            }
+            if (start == i) break;
+            int n;
+            if (plain) {
+                n = edit(text, start, i, buf);
+            } else {
+                // lowercasing is context sensitive, therefore it is done for the whole piece
+                String lower = text.substring(start, i).toLowerCase();
+                if (lower.length() > buf.length) buf = new char[lower.length()];
+                n = edit(lower, 0, lower.length(), buf);
+            }
+            String token = check(buf, n);
+            if (token != null) tokens.add(token);
+        }
+        return tokens;
+    }
+
+    /**
+     * copies lowercased piece to buffer, filters chars and collapses char repeats, returns new length
+     *
+     * @param src   source
+     * @param start piece start (inclusive)
+     * @param end   piece end (exclusive)
+     * @param buf   output buffer
+     */
+    private static int edit(CharSequence src, int start, int end, char[] buf) {
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            char c = src.charAt(i);
+            if (c <= MAX_CHAR) buf[n++] = c;
+        }
+        int out = 0;
+        int i = 0;
+        while (i < n) {
+            char c = buf[i];
+            int run = 1;
+            while ((i + run < n) && (buf[i + run] == c)) run++;
+            int keep = run;
+            if ((run > 2) && !isLineTerminator(c)) keep = (i == 0) ? 1 : 2;
+            for (int k = 0; k < keep; k++) buf[out++] = c;
+            i += run;
+        }
+        return out;
+    }
+
+    /**
+     * removes units and numbers, checks links, numbers and length. Returns token or null if token is not ok.
+     *
+     * @param buf buffer
+     * @param n   token length
+     */
+    private String check(char[] buf, int n) {
+        if (n == 0) return null;
+        String token = null;
+        if (isAsciiDigit(buf[0])) {
+            token = new String(buf, 0, n);
+            for (Pattern unit : UNITS) {
+                if (token.isEmpty() || !isAsciiDigit(token.charAt(0))) break;
+                token = unit.matcher(token).replaceAll("");
+            }
+            if (token.isEmpty()) return null;
+            buf = token.toCharArray();
+            n = buf.length;
+        }
+        if ((n > maxTokenLength) || (n < minTokenLength)) return null;
+        if (token == null) token = new String(buf, 0, n);
+        if (mayBeLink(buf, n) && LINK.matcher(token).matches()) return null;
+        if (isNumber(token)) return null;
+        return token;
+    }
+
+    /**
+     * links contain at least a dot or a colon
+     */
+    private static boolean mayBeLink(char[] buf, int n) {
+        for (int i = 0; i < n; i++)
+            if ((buf[i] == '.') || (buf[i] == ':')) return true;
+        return false;
+    }
+
+    /**
+     * checks if token can be casted into double (same grammar as Double.parseDouble)
+     *
+     * @param token original token
+     */
+    static boolean isNumber(String token) {
+        int start = 0;
+        int end = token.length();
+        // same as trim()
+        while ((start < end) && (token.charAt(start) <= ' ')) start++;
+        while ((end > start) && (token.charAt(end - 1) <= ' ')) end--;
+        if (start == end) return false;
+        int i = start;
+        char c = token.charAt(i);
+        if ((c == '+') || (c == '-')) {
+            if (++i == end) return false;
+            c = token.charAt(i);
+        }
+        if ((c == 'N') || (c == 'I')) {
+            String rest = token.substring(i, end);
+            return rest.equals("NaN") || rest.equals("Infinity");
+        }
+        if ((c == '0') && (i + 1 < end) && ((token.charAt(i + 1) == 'x') || (token.charAt(i + 1) == 'X'))) {
+            return HEX_NUMBER.matcher(token).region(i, end).matches();
+        }
+        // decimal: digits, optional dot, digits, optional exponent, optional suffix
+        int digits = 0;
+        while ((i < end) && isAsciiDigit(token.charAt(i))) { i++; digits++; }
+        if ((i < end) && (token.charAt(i) == '.')) {
+            i++;
+            while ((i < end) && isAsciiDigit(token.charAt(i))) { i++; digits++; }
+        }
+        if (digits == 0) return false;
+        if ((i < end) && ((token.charAt(i) == 'e') || (token.charAt(i) == 'E'))) {
+            i++;
+            if ((i < end) && ((token.charAt(i) == '+') || (token.charAt(i) == '-'))) i++;
+            int expDigits = 0;
+            while ((i < end) && isAsciiDigit(token.charAt(i))) { i++; expDigits++; }
+            if (expDigits == 0) return false;
+        }
+        if (i == end) return true;
+        c = token.charAt(i);
+        return (i == end - 1) && ((c == 'f') || (c == 'F') || (c == 'd') || (c == 'D'));
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    /**
+     * chars, that are not matched by '.' in regular expressions
+     */
+    private static boolean isLineTerminator(char c) {
+        return (c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029');
+    }
+
+    /**
+     * lookup table of the chars, that split text into pieces: "\\s+" and PUNCT of Tokenizer
+     */
+    private static boolean[] buildSeparators() {
+        boolean[] separators = new boolean[BMP_SIZE];
+        Pattern whitespace = Pattern.compile("\\s");
+        Pattern punct = Pattern.compile(Tokenizer.PUNCT);
+        for (int c = 0; c < BMP_SIZE; c++) {
+            if (Character.isSurrogate((char) c)) continue;
+            String s = String.valueOf((char) c);
+            separators[c] = whitespace.matcher(s).matches() || punct.matcher(s).matches();
+        }
+        return separators;
+    }
+
+}
@@ -9,8 +9,10 @@ package com.crawlergram.preprocessing.models;
 
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.TMessage;
+import com.crawlergram.structures.TVocabulary;
 import com.crawlergram.preprocessing.gras.GRAS;
 
+import java.util.BitSet;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -41,9 +43,21 @@ public class StemmerGRAS implements PreprocessorModel {
      */
     private Map<String, String> getUniqueWords(TDialog dialog) {
         Map<String, String> uniqueWords = new TreeMap<>();
+        TVocabulary vocabulary = dialog.getVocabulary();
+        BitSet seen = new BitSet(); // token IDs, which are already added
         for (TMessage msg : dialog.getMessages()) {
-            for (String token : msg.getTokens()) {
-                if (!uniqueWords.containsKey(token)) uniqueWords.put(token, null);
+            int[] ids = msg.getTokenIds();
+            if ((vocabulary != null) && (ids != null)) {
+                for (int id : ids) {
+                    if (!seen.get(id)) {
+                        seen.set(id);
+                        uniqueWords.put(vocabulary.getWord(id), null);
+                    }
+                }
+            } else {
+                for (String token : msg.getTokens()) {
+                    if (!uniqueWords.containsKey(token)) uniqueWords.put(token, null);
+                }
             }
         }
         return uniqueWords;
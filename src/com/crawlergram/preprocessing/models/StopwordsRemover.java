@@ -9,19 +9,17 @@ package com.crawlergram.preprocessing.models;
 
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.TMessage;
+import com.crawlergram.structures.TVocabulary;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.*;
 
 public class StopwordsRemover implements PreprocessorModel {
 
-    private static Map<String, Set<String>> stopwords;
+    private final Map<String, Set<String>> stopwords; // shared between instances and threads, guarded by itself
     private double langsRatio;
     private double popTreshold;
 
@@ -32,45 +30,95 @@ public class StopwordsRemover implements PreprocessorModel {
     }
 
     public StopwordsRemover(StopwordsRemoverBuilder builder){
-        stopwords = builder.stopwords;
+        this.stopwords = builder.stopwords;
         this.langsRatio = builder.langsRatio;
         this.popTreshold = builder.popTreshold;
     }
 
     /**
-     * Removes stopwords from token compounds. If chat has a dominating language - additional chack
+     * Removes stopwords from token compounds. If chat has a dominating language - additional chack.
+     * If messages have token IDs, stopwords are checked by IDs, tokens and IDs are compacted together.
      */
     public List<TMessage> removeStopWords(TDialog dialog) {
         String bestLang = dialog.getDialogsBestLang(popTreshold);
+        TVocabulary vocabulary = dialog.getVocabulary();
         // loads best lang
-        if (!bestLang.equals("UNKNOWN") && !stopwords.containsKey(bestLang))
-            stopwords.put(bestLang, loadStopWords(bestLang));
+        Set<String> bestStopwords = bestLang.equals("UNKNOWN") ? null : getStopWords(bestLang);
+        // stopwords IDs of the dialog's languages
+        Map<String, BitSet> stopwordsIds = new HashMap<>();
         // checks msgs
         for (TMessage msg : dialog.getMessages()) {
             String lang = msg.getBestLang();
             // load stopwords for "lang" if only they're not loaded before
-            if (!stopwords.containsKey(lang))
-                stopwords.put(lang, loadStopWords(lang));
+            Set<String> langStopwords = getStopWords(lang);
+            // additionally check if LI doubts (if lang != bestLang and PbestLang/Plang > langsRatio)
             List<String> tokens = msg.getTokens();
-            boolean flag = false;
-            for (int j = 0; j < tokens.size(); j++) {
-                if (stopwords.get(lang).contains(tokens.get(j)))
-                    flag = true;
-                // additionally check if LI doubts (if lang != bestLang and PbestLang/Plang > langsRatio)
-                if (msg.getLangs().containsKey(bestLang))
-                    if (!lang.equals(bestLang) && (msg.getLangs().get(lang) / msg.getLangs().get(bestLang) > langsRatio)
-                            && stopwords.get(bestLang).contains(tokens.get(j)))
-                        flag = true;
-                if (flag) {
-                    msg.getTokens().remove(j);
-                    j--;
-                    flag = false;
+            boolean checkBest = !tokens.isEmpty() && (bestStopwords != null) && msg.getLangs().containsKey(bestLang)
+                    && !lang.equals(bestLang) && (msg.getLangs().get(lang) / msg.getLangs().get(bestLang) > langsRatio);
+            int[] ids = msg.getTokenIds();
+            if ((vocabulary != null) && (ids != null)) {
+                BitSet langIds = getStopWordsIds(lang, langStopwords, vocabulary, stopwordsIds);
+                BitSet bestIds = checkBest ? getStopWordsIds(bestLang, bestStopwords, vocabulary, stopwordsIds) : null;
+                List<String> kept = new ArrayList<>(tokens.size());
+                int n = 0;
+                int j = 0;
+                for (String token : tokens) {
+                    int id = ids[j++];
+                    if (!langIds.get(id) && ((bestIds == null) || !bestIds.get(id))) {
+                        kept.add(token);
+                        ids[n++] = id;
+                    }
                 }
+                msg.setTokens(kept, (n == ids.length) ? ids : Arrays.copyOf(ids, n));
+            } else {
+                List<String> kept = new ArrayList<>(tokens.size());
+                for (String token : tokens) {
+                    if (!langStopwords.contains(token) && (!checkBest || !bestStopwords.contains(token)))
+                        kept.add(token);
+                }
+                msg.setTokens(kept);
             }
         }
         return dialog.getMessages();
     }
 
+    /**
+     * returns IDs of the stopwords, which are present in the vocabulary (all the tokens of the dialog are there)
+     *
+     * @param language   language code
+     * @param words      stopwords of the language
+     * @param vocabulary vocabulary
+     * @param cache      already converted stopwords
+     */
+    private BitSet getStopWordsIds(String language, Set<String> words, TVocabulary vocabulary, Map<String, BitSet> cache) {
+        BitSet ids = cache.get(language);
+        if (ids == null) {
+            ids = new BitSet();
+            for (String word : words) {
+                int id = vocabulary.lookup(word);
+                if (id >= 0) ids.set(id);
+            }
+            cache.put(language, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * returns stopwords of the language, reads them from file only once (thread-safe)
+     *
+     * @param language language code (i.e. en, es, de, ru etc.)
+     */
+    private Set<String> getStopWords(String language) {
+        synchronized (stopwords) {
+            Set<String> words = stopwords.get(language);
+            if (words == null) {
+                words = loadStopWords(language);
+                stopwords.put(language, words);
+            }
+            return words;
+        }
+    }
+
     /**
      * loads stop words from a file to the set
      *
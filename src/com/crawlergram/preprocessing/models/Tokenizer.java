@@ -9,6 +9,7 @@ package com.crawlergram.preprocessing.models;
 
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.TMessage;
+import com.crawlergram.structures.TVocabulary;
 
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -18,33 +19,48 @@ import java.util.regex.Pattern;
 
 public class Tokenizer implements PreprocessorModel {
 
-    final private static String PUNCT = "[\\p{Punct}–…‹›§«»¿¡!?≠\'´\"‘’“”⟨⟩°※©℗®℠™—]"; // punctuation
-    final private static String CHAR_REPEATS_BEG = "^((.)\\2)\\2+"; // same char doesn't repeat more than once at the beginning
-    final private static String CHAR_REPEATS_MID_END = "((.)\\2)\\2+"; // same char doesn't appear more than twice at mid and end
-    final private static String DATASIZES = "^[0-9]+([kmgtp])?([bб])(it|yte|ит|айт)?(s)?$"; // data sizes
-    final private static String SECONDS = "^[0-9]+([nmнм])?([sс])(ec|ек)?(ond)?(s)?$"; // seconds
-    final private static String HOURS = "^[0-9]+([hч])(our)?(s)?$"; // hours
-    final private static String METERS = "^[0-9]+([skmcdnкмдн])?([mм])(eter)?(s)?$"; // meters
-    final private static String TIME = "^[0-9]+(ap)m$"; // time
-    final private static String NUMBERS_SUP = "^[0-9]+(([kmкм])+|(ish|th|nd|st|rd|g|x|ый|ой|ий))?[0-9]*$"; // numbers
-    final private static String HEX = "^([0]+x)[0-9a-f]+$"; // hexadecimal 0xCAFE1 (doesn't match words like ABBA or CAFE)
-    final private static String CHAR_FILTER = "[^\u0000-\u1FFF]"; // filters all the characters that fall out this list
+    final static String PUNCT = "[\\p{Punct}–…‹›§«»¿¡!?≠\'´\"‘’“”⟨⟩°※©℗®℠™—]"; // punctuation
+    final static String CHAR_REPEATS_BEG = "^((.)\\2)\\2+"; // same char doesn't repeat more than once at the beginning
+    final static String CHAR_REPEATS_MID_END = "((.)\\2)\\2+"; // same char doesn't appear more than twice at mid and end
+    final static String DATASIZES = "^[0-9]+([kmgtp])?([bб])(it|yte|ит|айт)?(s)?$"; // data sizes
+    final static String SECONDS = "^[0-9]+([nmнм])?([sс])(ec|ек)?(ond)?(s)?$"; // seconds
+    final static String HOURS = "^[0-9]+([hч])(our)?(s)?$"; // hours
+    final static String METERS = "^[0-9]+([skmcdnкмдн])?([mм])(eter)?(s)?$"; // meters
+    final static String TIME = "^[0-9]+(ap)m$"; // time
+    final static String NUMBERS_SUP = "^[0-9]+(([kmкм])+|(ish|th|nd|st|rd|g|x|ый|ой|ий))?[0-9]*$"; // numbers
+    final static String HEX = "^([0]+x)[0-9a-f]+$"; // hexadecimal 0xCAFE1 (doesn't match words like ABBA or CAFE)
+    final static String CHAR_FILTER = "[^\u0000-\u1FFF]"; // filters all the characters that fall out this list
+    // http(s), www, ftp links | short links of type: youtube.com & youtube.com/watch?v=oHg5SJYRHA0
+    final static String LINK = "(.*(http://|https://|ftp://|file://|mailto:|nfs://|irc://|ssh://|telnet://|www\\.).+)" +
+            "|(^[A-Za-z0-9_.-~@]+\\.[A-Za-z0-9_.-~@]+(/.*)?)";
+    final private static Pattern LINK_PATTERN = Pattern.compile(LINK);
 
     private int minTokenLength;
     private int maxTokenLength;
     private boolean advanced; // advanced or simple tokenizer
+    private SinglePassTokenizer singlePass; // single-pass engine for advanced tokenization (null - regex cascade)
+    private TVocabulary vocabulary; // shared vocabulary, tokens are interned to IDs (null - no IDs)
 
     public Tokenizer(TokenizerBuilder builder){
         this.maxTokenLength = builder.maxTokenLength;
         this.minTokenLength = builder.minTokenLength;
         this.advanced = builder.advanced;
+        this.vocabulary = builder.vocabulary;
+        if (builder.singlePass)
+            this.singlePass = new SinglePassTokenizer(minTokenLength, maxTokenLength);
     }
 
     @Override
     public TDialog run(TDialog dialog) {
         for (TMessage msg : dialog.getMessages()) {
-            msg.setTokens(tokenizeToList(msg.getText()));
+            List<String> tokens = tokenizeToList(msg.getText());
+            if (vocabulary != null)
+                msg.setTokens(tokens, vocabulary.getIds(tokens));
+            else
+                msg.setTokens(tokens);
         }
+        if (vocabulary != null)
+            dialog.setVocabulary(vocabulary);
         return dialog;
     }
 
@@ -54,6 +70,7 @@ public class Tokenizer implements PreprocessorModel {
      * @param text original text
      */
     public List<String> tokenizeToList(String text) {
+        if (advanced && (singlePass != null)) return singlePass.tokenize(text);
         List<String> tokens = getSimpleTokens(text);
         if (advanced) tokens = getTokenCompounds(tokens);
         return tokens;
@@ -131,12 +148,7 @@ public class Tokenizer implements PreprocessorModel {
      * @param token original token
      */
     private boolean tokenIsLink(String token) {
-        // http(s), www, ftp links
-        String p1 = ".*(http://|https://|ftp://|file://|mailto:|nfs://|irc://|ssh://|telnet://|www\\.).+";
-        // short links of type: youtube.com & youtube.com/watch?v=oHg5SJYRHA0
-        String p2 = "^[A-Za-z0-9_.-~@]+\\.[A-Za-z0-9_.-~@]+(/.*)?";
-        Pattern pat = Pattern.compile("(" + p1 + ")" + "|" + "(" + p2 + ")");
-        Matcher mat = pat.matcher(token);
+        Matcher mat = LINK_PATTERN.matcher(token);
         return mat.matches();
     }
 
@@ -188,6 +200,28 @@ public class Tokenizer implements PreprocessorModel {
         private int minTokenLength = 2;
         private int maxTokenLength = 30;
         private boolean advanced;
+        private boolean singlePass = false;
+        private TVocabulary vocabulary = null;
+
+        /**
+         * tokens of messages are interned to IDs of the vocabulary (can be shared between tokenizers and threads)
+         *
+         * @param vocabulary vocabulary
+         */
+        public TokenizerBuilder setVocabulary(TVocabulary vocabulary) {
+            this.vocabulary = vocabulary;
+            return this;
+        }
+
+        /**
+         * advanced tokenization with single-pass engine instead of the regex cascade (the same output)
+         *
+         * @param singlePass single-pass engine flag
+         */
+        public TokenizerBuilder setSinglePass(boolean singlePass) {
+            this.singlePass = singlePass;
+            return this;
+        }
 
         public TokenizerBuilder setMinTokenLength(int minTokenLength) {
             this.minTokenLength = minTokenLength;
@@ -18,7 +18,7 @@ import java.util.*;
 
 public class TokensReplacer implements PreprocessorModel {
 
-    private Map<String, Map<String, List<String>>> replacements;
+    private final Map<String, Map<String, List<String>>> replacements; // shared between instances and threads, guarded by itself
     private boolean langsStrict;
     private double langsRatio;
     private double popTreshold;
@@ -46,45 +46,65 @@ public class TokensReplacer implements PreprocessorModel {
     private List<TMessage> replaceWords(TDialog dialog){
         String bestLang = dialog.getDialogsBestLang(popTreshold);
         // loads best lang
-        if (!bestLang.equals("UNKNOWN") && !replacements.containsKey(bestLang))
-            replacements.put(bestLang, loadReplacements(bestLang));
+        Map<String, List<String>> bestReplacements = bestLang.equals("UNKNOWN") ? null : getReplacements(bestLang);
         // checks msgs
         for (TMessage msg : dialog.getMessages()) {
             String lang = msg.getBestLang();
             // load stopwords for "lang" if only they're not loaded before
-            if (!replacements.containsKey(lang))
-                replacements.put(lang, loadReplacements(lang));
+            Map<String, List<String>> langReplacements = getReplacements(lang);
             List<String> tokens = msg.getTokens();
             boolean flag = false;
             boolean flagBest = false;
+            boolean changed = false;
             for (int j = 0; j < tokens.size(); j++) {
-                if (replacements.get(lang).containsKey(tokens.get(j)))
+                if (langReplacements.containsKey(tokens.get(j)))
                     flag = true;
                 // additionally check if LI doubts (if lang != bestLang and PbestLang/Plang > langsRatio)
-                if (msg.getLangs().containsKey(bestLang))
+                if ((bestReplacements != null) && msg.getLangs().containsKey(bestLang))
                     if (!lang.equals(bestLang) && (msg.getLangs().get(lang) / msg.getLangs().get(bestLang) > langsRatio)
-                            && replacements.get(bestLang).containsKey(tokens.get(j)))
+                            && bestReplacements.containsKey(tokens.get(j)))
                         flagBest = true;
                 if (flagBest && !langsStrict){
-                    List<String> reps = replacements.get(bestLang).get(msg.getTokens().get(j));
+                    List<String> reps = bestReplacements.get(msg.getTokens().get(j));
                     msg.getTokens().remove(j);
                     msg.getTokens().addAll(j, reps);
                     j += reps.size()-1;
                     flagBest = false;
+                    changed = true;
                 } else {
                     if (flag) {
-                        List<String> reps = replacements.get(lang).get(msg.getTokens().get(j));
+                        List<String> reps = langReplacements.get(msg.getTokens().get(j));
                         msg.getTokens().remove(j);
                         msg.getTokens().addAll(j, reps);
                         j += reps.size()-1;
                         flag = false;
+                        changed = true;
                     }
                 }
             }
+            // replacements can contain new tokens, IDs are updated
+            if (changed && (msg.getTokenIds() != null) && (dialog.getVocabulary() != null))
+                msg.setTokens(tokens, dialog.getVocabulary().getIds(tokens));
         }
         return dialog.getMessages();
     }
 
+    /**
+     * returns replacements of the language, reads them from file only once (thread-safe)
+     *
+     * @param language language code (i.e. en, es, de, ru etc.)
+     */
+    private Map<String, List<String>> getReplacements(String language) {
+        synchronized (replacements) {
+            Map<String, List<String>> reps = replacements.get(language);
+            if (reps == null) {
+                reps = loadReplacements(language);
+                replacements.put(language, reps);
+            }
+            return reps;
+        }
+    }
+
     /**
      * loads stop words from a file to the set
      *
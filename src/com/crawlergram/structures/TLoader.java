@@ -10,18 +10,30 @@ package com.crawlergram.structures;
 import com.crawlergram.db.DBStorageReduced;
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.dialog.TDialogComparator;
+import org.bson.Document;
+
+import java.io.Closeable;
+import java.io.IOException;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 public class TLoader {
 
     DBStorageReduced dbStorage = null;
-    private List<TDialog> dialogs; // loaded dialogs
+    private List<TDialog> dialogs; // loaded dialogs (not used in streaming mode)
+    private Map<Integer, TDialog> dialogsById; // directory of loaded dialogs: id -> dialog (not used in streaming mode)
     private int current; // current dialog number
     private int dateTo; // messages date from (global)
     private int dateFrom; // messages date to (global)
+    private boolean streaming; // if true - dialogs are read lazily, messages are read in batches
+    private int batchSize; // max number of messages in one batch (streaming mode)
+    private Iterator<Object> dialogsIterator; // lazy dialogs source (streaming mode)
+    private TDialog nextDialog; // prefetched dialog (streaming mode)
 
     public int getDateTo() {
         return dateTo;
@@ -42,9 +54,23 @@ public class TLoader {
     }
 
     public List<TDialog> getDialogs() {
+        checkNotStreaming();
         return dialogs;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public TLoader setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
     public DBStorageReduced getDbStorage() {
         return dbStorage;
     }
@@ -67,12 +93,23 @@ public class TLoader {
         this.dateTo = builder.dateTo;
         this.dateFrom = builder.dateFrom;
         this.current = builder.current;
-        List<Object> docs = dbStorage.getDialogs();
-        this.dialogs = TDialog.telegramDialogsFromDB(dbStorage.getDialogs());
-        Collections.sort(this.dialogs, new TDialogComparator());
+        this.streaming = builder.streaming;
+        this.batchSize = builder.batchSize;
+        if (streaming) {
+            openDialogsIterator();
+        } else {
+            this.dialogs = TDialog.telegramDialogsFromDB(dbStorage.getDialogs());
+            Collections.sort(this.dialogs, new TDialogComparator());
+            this.dialogsById = new HashMap<>();
+            for (TDialog d : dialogs)
+                dialogsById.putIfAbsent(d.getId(), d);
+        }
     }
 
     public boolean hasNext() {
+        if (streaming) {
+            return nextDialog != null;
+        }
         if (current < this.dialogs.size()) {
             return true;
         } else {
@@ -84,30 +121,91 @@ public class TLoader {
         if (!hasNext()) {
             throw new NoSuchElementException();
         }
+        if (streaming) {
+            TDialog dialog = nextDialog;
+            current++;
+            advance();
+            return dialog;
+        }
         return dialogs.get(current++);
     }
 
     public TDialog getDialogByIndex(int ind) {
+        checkNotStreaming();
         return dialogs.get(ind);
     }
 
+    /**
+     * returns loaded dialog by its id (or null)
+     *
+     * @param id dialog id
+     */
     public TDialog getDialogById(int id) {
-        for (TDialog d : dialogs)
-            if (d.getId() == id)
-                return d;
-        return null;
+        checkNotStreaming();
+        return dialogsById.get(id);
     }
 
     public TDialog getCurrentDialog() {
+        checkNotStreaming();
         return dialogs.get(current);
     }
 
     public int size() {
+        checkNotStreaming();
         return dialogs.size();
     }
 
+    /**
+     * returns loader to the first dialog (in streaming mode the dialogs cursor is reopened)
+     */
     public void reset(){
         this.current = 0;
+        if (streaming) {
+            closeDialogsIterator();
+            openDialogsIterator();
+        }
+    }
+
+    /**
+     * closes lazy dialogs source (its cursor), if it isn't exhausted yet
+     */
+    private void closeDialogsIterator() {
+        if (dialogsIterator instanceof Closeable) {
+            try {
+                ((Closeable) dialogsIterator).close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * opens lazy dialogs source and prefetches the first dialog
+     */
+    private void openDialogsIterator() {
+        this.dialogsIterator = dbStorage.getDialogsIterator();
+        advance();
+    }
+
+    /**
+     * prefetches the next dialog from the lazy source
+     */
+    private void advance() {
+        nextDialog = null;
+        while ((nextDialog == null) && dialogsIterator.hasNext()) {
+            Object doc = dialogsIterator.next();
+            if (doc instanceof Document)
+                nextDialog = TDialog.telegramDialogFromMongoDocument((Document) doc);
+        }
+    }
+
+    /**
+     * random access and size are not available, when dialogs are streamed (the loader is in the wrong state)
+     */
+    private void checkNotStreaming() {
+        if (streaming) {
+            throw new IllegalStateException("Dialogs list is not available in streaming mode");
+        }
     }
 
     /**
@@ -116,14 +214,14 @@ public class TLoader {
      * @param dialog dialog
      */
     public List<TMessage> loadMessages(TDialog dialog) {
-        return TMessage.tMessagesFromDB(dbStorage.readMessages(dialog, dateFrom, dateTo));
+        return dbStorage.readTMessages(dialog, dateFrom, dateTo);
     }
 
     /**
      * loads messages for current dialog
      */
     public List<TMessage> loadMessages() {
-        return TMessage.tMessagesFromDB(dbStorage.readMessages(dialogs.get(current), dateFrom, dateTo));
+        return dbStorage.readTMessages(getCurrentDialog(), dateFrom, dateTo);
     }
 
     /**
@@ -134,7 +232,7 @@ public class TLoader {
      * @param dateTo   date to
      */
     public List<TMessage> loadMessages(TDialog dialog, int dateFrom, int dateTo) {
-        return TMessage.tMessagesFromDB(dbStorage.readMessages(dialog, dateFrom, dateTo));
+        return dbStorage.readTMessages(dialog, dateFrom, dateTo);
     }
 
     /**
@@ -144,7 +242,28 @@ public class TLoader {
      * @param dateTo   date to
      */
     public List<TMessage> loadMessages(int dateFrom, int dateTo) {
-        return TMessage.tMessagesFromDB(dbStorage.readMessages(dialogs.get(current), dateFrom, dateTo));
+        return dbStorage.readTMessages(getCurrentDialog(), dateFrom, dateTo);
+    }
+
+    /**
+     * reads messages of the dialog in batches of batchSize messages (global dates interval),
+     * only one batch is kept in memory at a time
+     *
+     * @param dialog dialog
+     */
+    public Iterator<List<TMessage>> loadMessagesBatches(TDialog dialog) {
+        return loadMessagesBatches(dialog, dateFrom, dateTo);
+    }
+
+    /**
+     * reads messages of the dialog in batches of batchSize messages
+     *
+     * @param dialog   dialog
+     * @param dateFrom date from
+     * @param dateTo   date to
+     */
+    public Iterator<List<TMessage>> loadMessagesBatches(TDialog dialog, int dateFrom, int dateTo) {
+        return dbStorage.readTMessagesBatches(dialog, dateFrom, dateTo, batchSize);
     }
 
     public static class TLoaderBuilder {
@@ -154,6 +273,23 @@ public class TLoader {
         private int current = 0; // current dialog number
         private int dateTo = 0; // messages date from (global)
         private int dateFrom = 0; // messages date to (global)
+        private boolean streaming = false; // lazy dialogs and batched messages
+        private int batchSize = 10000; // max number of messages in one batch (streaming mode)
+
+        /**
+         * dialogs are read lazily from a cursor, messages can be read in batches (see loadMessagesBatches)
+         *
+         * @param streaming streaming mode flag
+         */
+        public TLoaderBuilder setStreaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        public TLoaderBuilder setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
 
         public TLoaderBuilder setDateTo(int dateTo) {
             this.dateTo = dateTo;
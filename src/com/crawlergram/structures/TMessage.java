@@ -20,6 +20,7 @@ public class TMessage {
     protected String text;
     protected Integer date;
     protected List<String> tokens = null;
+    protected int[] tokenIds = null; // IDs of tokens in the dialog's vocabulary (null - not interned)
     protected Map<String, Double> langs = new HashMap<>();
 
     public TMessage() {
@@ -70,8 +71,33 @@ public class TMessage {
         return tokens;
     }
 
+    /**
+     * sets tokens, IDs of the old tokens are dropped
+     *
+     * @param tokens tokens
+     */
     public void setTokens(List<String> tokens) {
         this.tokens = tokens;
+        this.tokenIds = null;
+    }
+
+    public int[] getTokenIds() {
+        return tokenIds;
+    }
+
+    public void setTokenIds(int[] tokenIds) {
+        this.tokenIds = tokenIds;
+    }
+
+    /**
+     * sets tokens and their IDs (the same length and order)
+     *
+     * @param tokens   tokens
+     * @param tokenIds IDs of tokens
+     */
+    public void setTokens(List<String> tokens, int[] tokenIds) {
+        this.tokens = tokens;
+        this.tokenIds = tokenIds;
     }
 
     public Map<String, Double> getLangs() {
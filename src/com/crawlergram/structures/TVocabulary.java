@@ -0,0 +1,87 @@
+/*
+ * Title: TVocabulary.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.structures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of tokens. Each token is interned to an int ID once (IDs are given in order of the first appearance).
+ * Can be shared between dialogs and threads.
+ */
+public class TVocabulary {
+
+    private final ConcurrentHashMap<String, Integer> word2Id; // token -> ID (lock-free lookups)
+    private final List<String> id2Word; // ID -> token, guarded by itself
+
+    public TVocabulary() {
+        this.word2Id = new ConcurrentHashMap<>();
+        this.id2Word = new ArrayList<>();
+    }
+
+    /**
+     * returns ID of the token, adds the token to vocabulary if it is absent
+     *
+     * @param word token
+     */
+    public int getId(String word) {
+        Integer id = word2Id.get(word);
+        if (id != null) return id;
+        synchronized (id2Word) {
+            id = word2Id.get(word);
+            if (id == null) {
+                id = id2Word.size();
+                id2Word.add(word);
+                word2Id.put(word, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * returns ID of the token or -1 if vocabulary doesn't contain it
+     *
+     * @param word token
+     */
+    public int lookup(String word) {
+        Integer id = word2Id.get(word);
+        return (id == null) ? -1 : id;
+    }
+
+    /**
+     * returns token of the ID
+     *
+     * @param id token ID
+     */
+    public String getWord(int id) {
+        synchronized (id2Word) {
+            return id2Word.get(id);
+        }
+    }
+
+    public int size() {
+        synchronized (id2Word) {
+            return id2Word.size();
+        }
+    }
+
+    /**
+     * interns list of tokens
+     *
+     * @param words tokens
+     */
+    public int[] getIds(List<String> words) {
+        int[] ids = new int[words.size()];
+        int i = 0;
+        for (String word : words)
+            ids[i++] = getId(word);
+        return ids;
+    }
+
+}
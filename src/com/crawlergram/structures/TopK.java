@@ -0,0 +1,122 @@
+/*
+ * Title: TopK.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.structures;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Top-k selection over primitive arrays (top topical words, feature rankings, etc.).
+ * Keeps a bounded min-heap of the k best indexes, so the cost is O(n log k) instead of sorting all n values,
+ * values are never boxed (the heap compares values of the indexes).
+ * Indexes are returned by value descending, ties - by index ascending (the same order as a stable sort by value).
+ */
+public final class TopK {
+
+    private TopK() {}
+
+    /**
+     * returns indexes of k largest values
+     *
+     * @param values values
+     * @param k      number of indexes
+     */
+    public static int[] topK(int[] values, int k) {
+        return topK(values, 0, 1, values.length, k);
+    }
+
+    /**
+     * returns indexes of k largest values of strided array: i-th value is values[offset + i * stride]
+     * (e.g. column of row-major matrix)
+     *
+     * @param values values
+     * @param offset position of the 0-th value
+     * @param stride distance between consecutive values
+     * @param n      number of values
+     * @param k      number of indexes
+     */
+    public static int[] topK(int[] values, int offset, int stride, int n, int k) {
+        return topK(n, k, (i, j) -> Integer.compare(values[offset + i * stride], values[offset + j * stride]));
+    }
+
+    /**
+     * returns indexes of k largest values
+     *
+     * @param values values
+     * @param k      number of indexes
+     */
+    public static int[] topK(double[] values, int k) {
+        return topK(values.length, k, (i, j) -> Double.compare(values[i], values[j]));
+    }
+
+    /**
+     * returns k of n indexes with the largest values
+     *
+     * @param n       number of values
+     * @param k       number of indexes
+     * @param compare compares values of two indexes
+     */
+    private static int[] topK(int n, int k, IntBinaryOperator compare) {
+        k = Math.max(0, Math.min(k, n));
+        int[] heap = new int[k]; // indexes, the worst one is the root
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (size < k)
+                siftUp(heap, size++, i, compare);
+            else if ((k > 0) && worse(heap[0], i, compare))
+                siftDown(heap, size, i, compare);
+        }
+        // pops the worst index to the end of result
+        int[] result = new int[size];
+        while (size > 0) {
+            result[size - 1] = heap[0];
+            size--;
+            if (size > 0)
+                siftDown(heap, size, heap[size], compare);
+        }
+        return result;
+    }
+
+    /**
+     * places index to the position and moves it up the heap
+     */
+    private static void siftUp(int[] heap, int pos, int index, IntBinaryOperator compare) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!worse(index, heap[parent], compare)) break;
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+        heap[pos] = index;
+    }
+
+    /**
+     * places index to the root and moves it down the heap
+     */
+    private static void siftDown(int[] heap, int size, int index, IntBinaryOperator compare) {
+        int pos = 0;
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) break;
+            if ((child + 1 < size) && worse(heap[child + 1], heap[child], compare))
+                child++;
+            if (!worse(heap[child], index, compare)) break;
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = index;
+    }
+
+    /**
+     * true if index i1 is ranked lower than i2: smaller value, or the same value and larger index
+     */
+    private static boolean worse(int i1, int i2, IntBinaryOperator compare) {
+        int c = compare.applyAsInt(i1, i2);
+        return (c < 0) || ((c == 0) && (i1 > i2));
+    }
+
+}
@@ -9,6 +9,7 @@ package com.crawlergram.structures.dialog;
 
 import com.crawlergram.db.DBStorageReduced;
 import com.crawlergram.structures.TMessage;
+import com.crawlergram.structures.TVocabulary;
 import org.bson.Document;
 
 import java.util.*;
@@ -22,6 +23,7 @@ public class TDialog {
     private Integer flags;
     private Map<String, String> uniqueWords = new TreeMap<>();
     private List<TMessage> messages = new ArrayList<>();
+    private TVocabulary vocabulary = null; // vocabulary of messages' token IDs (set by tokenizer)
 
     public TDialog(Integer id, String type, Long accessHash, String username, Integer flags) {
         this.id = id;
@@ -87,6 +89,14 @@ public class TDialog {
         this.uniqueWords = uniqueWords;
     }
 
+    public TVocabulary getVocabulary() {
+        return vocabulary;
+    }
+
+    public void setVocabulary(TVocabulary vocabulary) {
+        this.vocabulary = vocabulary;
+    }
+
     public List<TMessage> getMessages() {
         return messages;
     }
@@ -137,7 +147,7 @@ public class TDialog {
      * @param dbStorage storage instance
      */
     public void loadMessages(DBStorageReduced dbStorage){
-        this.messages = TMessage.tMessagesFromDB(dbStorage.readMessages(this));
+        this.messages = dbStorage.readTMessages(this, 0, 0);
     }
 
     /**
@@ -148,7 +158,7 @@ public class TDialog {
      * @param dateTo storage instance
      */
     public void loadMessages(DBStorageReduced dbStorage, int dateFrom, int dateTo){
-        this.messages = TMessage.tMessagesFromDB(dbStorage.readMessages(this, dateFrom, dateTo));
+        this.messages = dbStorage.readTMessages(this, dateFrom, dateTo);
     }
 
     public void clearMessages(){
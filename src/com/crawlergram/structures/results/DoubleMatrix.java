@@ -0,0 +1,150 @@
+/*
+ * Title: DoubleMatrix.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.structures.results;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Read-only matrix of doubles. Values are either stored in a primitive row-major array (double or float),
+ * or derived on demand from counts: (count + prior) / (rowSum + priorSum), e.g. phi and theta of topic models.
+ */
+public abstract class DoubleMatrix {
+
+    protected final int rows;
+    protected final int cols;
+
+    protected DoubleMatrix(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    public abstract double get(int row, int col);
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * copies the row to array
+     *
+     * @param row row
+     */
+    public double[] getRow(int row) {
+        double[] values = new double[cols];
+        for (int c = 0; c < cols; c++)
+            values[c] = get(row, c);
+        return values;
+    }
+
+    /**
+     * read-only list view (values are calculated and boxed on access, nothing is copied)
+     */
+    public List<List<Double>> asList() {
+        return new AbstractList<List<Double>>() {
+            @Override
+            public List<Double> get(int row) {
+                if ((row < 0) || (row >= rows)) throw new IndexOutOfBoundsException("Row: " + row);
+                return new AbstractList<Double>() {
+                    @Override
+                    public Double get(int col) {
+                        if ((col < 0) || (col >= cols)) throw new IndexOutOfBoundsException("Column: " + col);
+                        return DoubleMatrix.this.get(row, col);
+                    }
+
+                    @Override
+                    public int size() {
+                        return cols;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        };
+    }
+
+    /**
+     * matrix of stored doubles
+     *
+     * @param values row-major values (are not copied)
+     */
+    public static DoubleMatrix dense(double[] values, int rows, int cols) {
+        checkSize(values.length, rows, cols);
+        return new DoubleMatrix(rows, cols) {
+            @Override
+            public double get(int row, int col) {
+                return values[row * cols + col];
+            }
+        };
+    }
+
+    /**
+     * matrix of stored floats (half of memory, single precision)
+     *
+     * @param values row-major values (are not copied)
+     */
+    public static DoubleMatrix dense(float[] values, int rows, int cols) {
+        checkSize(values.length, rows, cols);
+        return new DoubleMatrix(rows, cols) {
+            @Override
+            public double get(int row, int col) {
+                return values[row * cols + col];
+            }
+        };
+    }
+
+    /**
+     * matrix of smoothed proportions (count + prior) / (rowSum + priorSum), calculated on demand
+     *
+     * @param counts   counts
+     * @param rowSums  sums of the rows (are not copied)
+     * @param prior    prior (e.g. beta)
+     * @param priorSum sum of priors of the row (e.g. beta * vocabularySize)
+     */
+    public static DoubleMatrix smoothed(IntMatrix counts, int[] rowSums, double prior, double priorSum) {
+        checkSize(rowSums.length, counts.getRows(), 1);
+        int[] values = counts.getValues();
+        int cols = counts.getCols();
+        return new DoubleMatrix(counts.getRows(), cols) {
+            @Override
+            public double get(int row, int col) {
+                return (values[row * cols + col] + prior) / (rowSums[row] + priorSum);
+            }
+        };
+    }
+
+    /**
+     * copies rectangular list of lists into matrix
+     *
+     * @param list list of rows
+     */
+    public static DoubleMatrix fromList(List<List<Double>> list) {
+        int rows = list.size();
+        int cols = (rows == 0) ? 0 : list.get(0).size();
+        double[] values = new double[rows * cols];
+        for (int r = 0; r < rows; r++) {
+            List<Double> row = list.get(r);
+            for (int c = 0; c < cols; c++)
+                values[r * cols + c] = row.get(c);
+        }
+        return dense(values, rows, cols);
+    }
+
+    private static void checkSize(int length, int rows, int cols) {
+        if (length != rows * cols)
+            throw new IllegalArgumentException("Matrix " + rows + "x" + cols + " can't hold " + length + " values");
+    }
+
+}
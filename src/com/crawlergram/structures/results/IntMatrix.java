@@ -0,0 +1,119 @@
+/*
+ * Title: IntMatrix.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.structures.results;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Row-major int matrix in one primitive array
+ */
+public class IntMatrix {
+
+    private final int[] values;
+    private final int rows;
+    private final int cols;
+
+    public IntMatrix(int rows, int cols) {
+        this(new int[rows * cols], rows, cols);
+    }
+
+    /**
+     * @param values row-major values (are not copied)
+     * @param rows   number of rows
+     * @param cols   number of columns
+     */
+    public IntMatrix(int[] values, int rows, int cols) {
+        if (values.length != rows * cols)
+            throw new IllegalArgumentException("Matrix " + rows + "x" + cols + " can't hold " + values.length + " values");
+        this.values = values;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    public int get(int row, int col) {
+        return values[row * cols + col];
+    }
+
+    public void set(int row, int col, int value) {
+        values[row * cols + col] = value;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * row-major values (not a copy)
+     */
+    public int[] getValues() {
+        return values;
+    }
+
+    /**
+     * sums of rows
+     */
+    public int[] rowSums() {
+        int[] sums = new int[rows];
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++)
+                sums[r] += values[r * cols + c];
+        return sums;
+    }
+
+    /**
+     * read-only list view (values are boxed on access, nothing is copied)
+     */
+    public List<List<Integer>> asList() {
+        return new AbstractList<List<Integer>>() {
+            @Override
+            public List<Integer> get(int row) {
+                if ((row < 0) || (row >= rows)) throw new IndexOutOfBoundsException("Row: " + row);
+                return new AbstractList<Integer>() {
+                    @Override
+                    public Integer get(int col) {
+                        if ((col < 0) || (col >= cols)) throw new IndexOutOfBoundsException("Column: " + col);
+                        return values[row * cols + col];
+                    }
+
+                    @Override
+                    public int size() {
+                        return cols;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        };
+    }
+
+    /**
+     * copies rectangular list of lists into matrix
+     *
+     * @param list list of rows
+     */
+    public static IntMatrix fromList(List<List<Integer>> list) {
+        int rows = list.size();
+        int cols = (rows == 0) ? 0 : list.get(0).size();
+        IntMatrix matrix = new IntMatrix(rows, cols);
+        for (int r = 0; r < rows; r++) {
+            List<Integer> row = list.get(r);
+            for (int c = 0; c < cols; c++)
+                matrix.values[r * cols + c] = row.get(c);
+        }
+        return matrix;
+    }
+
+}
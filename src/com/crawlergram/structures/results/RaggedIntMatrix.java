@@ -0,0 +1,90 @@
+/*
+ * Title: RaggedIntMatrix.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.structures.results;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Rows of different length (e.g. topics of each document's words) in one primitive array
+ */
+public class RaggedIntMatrix {
+
+    private final int[] values; // values of all rows
+    private final int[] rowStarts; // start of each row in values (rows + 1)
+
+    /**
+     * @param values    values of all rows (are not copied)
+     * @param rowStarts start of each row in values, the last element - end of the last row (are not copied)
+     */
+    public RaggedIntMatrix(int[] values, int[] rowStarts) {
+        this.values = values;
+        this.rowStarts = rowStarts;
+    }
+
+    public int get(int row, int index) {
+        return values[rowStarts[row] + index];
+    }
+
+    public int getRows() {
+        return rowStarts.length - 1;
+    }
+
+    public int getRowLength(int row) {
+        return rowStarts[row + 1] - rowStarts[row];
+    }
+
+    /**
+     * read-only list view (values are boxed on access, nothing is copied)
+     */
+    public List<List<Integer>> asList() {
+        return new AbstractList<List<Integer>>() {
+            @Override
+            public List<Integer> get(int row) {
+                if ((row < 0) || (row >= getRows())) throw new IndexOutOfBoundsException("Row: " + row);
+                int start = rowStarts[row];
+                int length = getRowLength(row);
+                return new AbstractList<Integer>() {
+                    @Override
+                    public Integer get(int index) {
+                        if ((index < 0) || (index >= length)) throw new IndexOutOfBoundsException("Index: " + index);
+                        return values[start + index];
+                    }
+
+                    @Override
+                    public int size() {
+                        return length;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return getRows();
+            }
+        };
+    }
+
+    /**
+     * copies list of lists into matrix
+     *
+     * @param list list of rows
+     */
+    public static RaggedIntMatrix fromList(List<List<Integer>> list) {
+        int[] rowStarts = new int[list.size() + 1];
+        for (int r = 0; r < list.size(); r++)
+            rowStarts[r + 1] = rowStarts[r] + list.get(r).size();
+        int[] values = new int[rowStarts[list.size()]];
+        int i = 0;
+        for (List<Integer> row : list)
+            for (Integer value : row)
+                values[i++] = value;
+        return new RaggedIntMatrix(values, rowStarts);
+    }
+
+}
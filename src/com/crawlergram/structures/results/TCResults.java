@@ -7,16 +7,21 @@
 
 package com.crawlergram.structures.results;
 
+import org.bson.Document;
+
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class TCResults {
 
     private List<Map<String, Double>> scores; // maps category and score for this category
+    private List<Integer> messageIds; // ID of the source message of each score (null - unknown)
 
     public TCResults() {
         this.scores = new ArrayList<>();
+        this.messageIds = new ArrayList<>();
     }
 
     public TCResults(List<Map<String, Double>> scores) {
@@ -30,4 +35,30 @@ public class TCResults {
     public void setScores(List<Map<String, Double>> scores) {
         this.scores = scores;
     }
+
+    public List<Integer> getMessageIds() {
+        return messageIds;
+    }
+
+    public void setMessageIds(List<Integer> messageIds) {
+        this.messageIds = messageIds;
+    }
+
+    /**
+     * Converts results to mongoDB's documents, one document per classified message
+     *
+     * @param key results key (the same key replaces the results of the previous run)
+     */
+    public List<Object> toMongoDocs(String key) {
+        List<Object> docs = new ArrayList<>(scores.size());
+        for (int i = 0; i < scores.size(); i++) {
+            Document doc = new Document("_id", key + "_" + i)
+                    .append("result", key)
+                    .append("doc", i);
+            if ((messageIds != null) && (i < messageIds.size()))
+                doc.append("message", messageIds.get(i));
+            docs.add(doc.append("scores", new Document(new HashMap<String, Object>(scores.get(i)))));
+        }
+        return docs;
+    }
 }
@@ -7,23 +7,39 @@
 
 package com.crawlergram.structures.results;
 
+import org.bson.Document;
+
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Results of a topic model. Matrices are kept in primitive arrays, phi (and theta of LDA) are derived from counts
+ * on demand. List getters return read-only views, which box the values on access.
+ */
 public class TMResults {
 
     private TMResultsParameters parameters;
-    private List<List<Integer>> topicAssignments;
+    private RaggedIntMatrix topicAssignments; // topic of each word of each document
     private List<Map<String, Double>> topTopicalWords;
-    private List<List<Double>> topicWordPros; // phi
-    private List<List<Integer>> topicWordCount;
-    private List<List<Double>> docTopicPros; //theta
-    private List<List<Integer>> docTopicCount;
+    private DoubleMatrix topicWordPros; // phi
+    private IntMatrix topicWordCount;
+    private DoubleMatrix docTopicPros; //theta
+    private IntMatrix docTopicCount;
+    private List<Integer> messageIds; // ID of the source message of each document (null - unknown)
 
     public TMResults(TMResultsParameters parameters, List<List<Integer>> topicAssignments,
                      List<Map<String, Double>> topTopicalWords, List<List<Double>> topicWordPros,
                      List<List<Integer>> topicWordCount, List<List<Double>> docTopicPros,
                      List<List<Integer>> docTopicCount) {
+        this(parameters, RaggedIntMatrix.fromList(topicAssignments), topTopicalWords,
+                DoubleMatrix.fromList(topicWordPros), IntMatrix.fromList(topicWordCount),
+                DoubleMatrix.fromList(docTopicPros), IntMatrix.fromList(docTopicCount));
+    }
+
+    public TMResults(TMResultsParameters parameters, RaggedIntMatrix topicAssignments,
+                     List<Map<String, Double>> topTopicalWords, DoubleMatrix topicWordPros,
+                     IntMatrix topicWordCount, DoubleMatrix docTopicPros, IntMatrix docTopicCount) {
         this.parameters = parameters;
         this.topicAssignments = topicAssignments;
         this.topTopicalWords = topTopicalWords;
@@ -33,6 +49,14 @@ public class TMResults {
         this.docTopicCount = docTopicCount;
     }
 
+    public List<Integer> getMessageIds() {
+        return messageIds;
+    }
+
+    public void setMessageIds(List<Integer> messageIds) {
+        this.messageIds = messageIds;
+    }
+
     public TMResultsParameters getParameters() {
         return parameters;
     }
@@ -42,11 +66,15 @@ public class TMResults {
     }
 
     public List<List<Integer>> getTopicAssignments() {
-        return topicAssignments;
+        return topicAssignments.asList();
     }
 
     public void setTopicAssignments(List<List<Integer>> topicAssignments) {
-        this.topicAssignments = topicAssignments;
+        this.topicAssignments = RaggedIntMatrix.fromList(topicAssignments);
+    }
+
+    public RaggedIntMatrix getTopicAssignmentsMatrix() {
+        return topicAssignments;
     }
 
     public List<Map<String, Double>> getTopTopicalWords() {
@@ -58,34 +86,97 @@ public class TMResults {
     }
 
     public List<List<Double>> getTopicWordPros() {
-        return topicWordPros;
+        return topicWordPros.asList();
     }
 
     public void setTopicWordPros(List<List<Double>> topicWordPros) {
-        this.topicWordPros = topicWordPros;
+        this.topicWordPros = DoubleMatrix.fromList(topicWordPros);
+    }
+
+    public DoubleMatrix getTopicWordProsMatrix() {
+        return topicWordPros;
     }
 
     public List<List<Integer>> getTopicWordCount() {
-        return topicWordCount;
+        return topicWordCount.asList();
     }
 
     public void setTopicWordCount(List<List<Integer>> topicWordCount) {
-        this.topicWordCount = topicWordCount;
+        this.topicWordCount = IntMatrix.fromList(topicWordCount);
+    }
+
+    public IntMatrix getTopicWordCountMatrix() {
+        return topicWordCount;
     }
 
     public List<List<Double>> getDocTopicPros() {
-        return docTopicPros;
+        return docTopicPros.asList();
     }
 
     public void setDocTopicPros(List<List<Double>> docTopicPros) {
-        this.docTopicPros = docTopicPros;
+        this.docTopicPros = DoubleMatrix.fromList(docTopicPros);
+    }
+
+    public DoubleMatrix getDocTopicProsMatrix() {
+        return docTopicPros;
     }
 
     public List<List<Integer>> getDocTopicCount() {
-        return docTopicCount;
+        return docTopicCount.asList();
     }
 
     public void setDocTopicCount(List<List<Integer>> docTopicCount) {
-        this.docTopicCount = docTopicCount;
+        this.docTopicCount = IntMatrix.fromList(docTopicCount);
+    }
+
+    public IntMatrix getDocTopicCountMatrix() {
+        return docTopicCount;
+    }
+
+    /**
+     * Converts results to mongoDB's documents: one document of the model (parameters and top topical words)
+     * and one document per modeled document (theta row and topic assignments). Words are stored in arrays,
+     * they can contain characters forbidden in field names.
+     *
+     * @param key results key (the same key replaces the results of the previous run)
+     */
+    public List<Object> toMongoDocs(String key) {
+        List<Object> docs = new ArrayList<>(docTopicPros.getRows() + 1);
+        List<Document> topics = new ArrayList<>(topTopicalWords.size());
+        for (Map<String, Double> topic : topTopicalWords) {
+            List<String> words = new ArrayList<>(topic.size());
+            List<Double> pros = new ArrayList<>(topic.size());
+            for (Map.Entry<String, Double> entry : topic.entrySet()) {
+                words.add(entry.getKey());
+                pros.add(entry.getValue());
+            }
+            topics.add(new Document("words", words).append("pros", pros));
+        }
+        List<Integer> topicSizes = new ArrayList<>();
+        for (int size : topicWordCount.rowSums())
+            topicSizes.add(size);
+        docs.add(new Document("_id", key)
+                .append("result", key)
+                .append("model", parameters.getModel())
+                .append("numTopics", parameters.getNumTopics())
+                .append("alpha", parameters.getAlpha())
+                .append("beta", parameters.getBeta())
+                .append("numIterations", parameters.getNumIterations())
+                .append("topWords", parameters.getTopWords())
+                .append("topicSizes", topicSizes)
+                .append("topics", topics));
+        List<List<Double>> theta = docTopicPros.asList();
+        List<List<Integer>> assignments = topicAssignments.asList();
+        for (int d = 0; d < docTopicPros.getRows(); d++) {
+            Document doc = new Document("_id", key + "_" + d)
+                    .append("result", key)
+                    .append("doc", d);
+            // documents skip empty messages, so the index differs from the message position
+            if (messageIds != null)
+                doc.append("message", messageIds.get(d));
+            docs.add(doc.append("topics", new ArrayList<>(theta.get(d)))
+                    .append("assignments", new ArrayList<>(assignments.get(d))));
+        }
+        return docs;
     }
 }
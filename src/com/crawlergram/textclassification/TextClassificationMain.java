@@ -8,6 +8,7 @@
 package com.crawlergram.textclassification;
 
 import com.crawlergram.db.DBStorageReduced;
+import com.crawlergram.db.ResultsWriter;
 import com.crawlergram.db.mongo.MongoDBStorageReduced;
 import com.crawlergram.preprocessing.PreprocessingMain;
 import com.crawlergram.preprocessing.liga.LIGA;
@@ -16,6 +17,7 @@ import com.crawlergram.structures.TLoader;
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.results.TCResults;
 import com.crawlergram.textclassification.models.ClassificationModel;
+import com.crawlergram.structures.TVocabulary;
 import org.apache.tika.langdetect.OptimaizeLangDetector;
 import org.apache.tika.language.detect.LanguageDetector;
 
@@ -26,6 +28,16 @@ import java.util.*;
 public class TextClassificationMain {
 
     public static void textClassificationLoop(TLoader tLoader, List<ClassificationModel> classificationModels){
+        textClassificationLoop(tLoader, classificationModels, null);
+    }
+
+    /**
+     * classifies messages of all the dialogs, results of each dialog are written in background
+     *
+     * @param writer results writer (null - results are not written)
+     */
+    public static void textClassificationLoop(TLoader tLoader, List<ClassificationModel> classificationModels,
+                                              ResultsWriter writer){
         System.out.println("Topic Modeling");
         while (tLoader.hasNext()){
             TDialog current = tLoader.next();
@@ -34,9 +46,12 @@ public class TextClassificationMain {
 
             TextClassification textClassification = new TextClassification.TextClassificationBuilder(current, classificationModels).build();
 
-            textClassification.run();
+            List<TCResults> results = textClassification.run();
             System.out.println();
 
+            if (writer != null)
+                writer.writeClasses(current, results);
+
             //res.addAll(textClassification.getResults());
         }
     }
@@ -50,7 +65,7 @@ public class TextClassificationMain {
 
         // language identification model (loaded only once)
         String ligaModelPath = "res" + File.separator + "liga" + File.separator + "model_n3.liga";
-        LIGA ligaModel = new LIGA.LIGABuilder(0.5).setLogLIGA(true).setMaxSearchDepth(1000).build();
+        LIGA ligaModel = new LIGA.LIGABuilder(0.5).setLogLIGA(true).build();
         ligaModel.loadModel(ligaModelPath);
 
         // optional language detection using Apache Tika
@@ -65,10 +80,19 @@ public class TextClassificationMain {
         // loads dialogs
         TLoader tLoader = new TLoader.TLoaderBuilder(dbStorage).setDateFrom(0).setDateTo(0).build();
 
+        // vocabulary of token IDs (shared by all dialogs)
+        TVocabulary vocabulary = new TVocabulary();
+
+        // cache of language identification results (shared by all dialogs)
+        LanguageCache languageCache = new LanguageCache.LanguageCacheBuilder().setMaxEntries(100000)
+                .setMaxBytes(64L * 1024 * 1024).build();
+
         List<PreprocessorModel> preprocessors = new ArrayList<>();
         // preprocessors.add(new MessageMerger.MessageMergerBuilder().build());
-        preprocessors.add(new Tokenizer.TokenizerBuilder(true).build());
-        preprocessors.add(new LanguageIdentificator.LanguageIdentificatorBuilder(tikaModel).build());
+        preprocessors.add(new Tokenizer.TokenizerBuilder(true).setSinglePass(true).setVocabulary(vocabulary).build());
+        LanguageIdentificator languageIdentificator = new LanguageIdentificator.LanguageIdentificatorBuilder(tikaModel)
+                .setCache(languageCache).build();
+        preprocessors.add(languageIdentificator);
         preprocessors.add(new StopwordsRemover.StopwordsRemoverBuilder(stopwords).build());
         preprocessors.add(new StemmerGRAS.StemmerGRASBuilder().build());
 
@@ -81,9 +105,13 @@ public class TextClassificationMain {
         List<ClassificationModel> classificationModels = new ArrayList<>();
         //classificationModels.add();
 
-        textClassificationLoop(tLoader, classificationModels);
+        // results are written to CLASSES<dialog id> collections
+        ResultsWriter resultsWriter = new ResultsWriter.ResultsWriterBuilder(dbStorage).build();
 
+        textClassificationLoop(tLoader, classificationModels, resultsWriter);
 
+        resultsWriter.close();
+        languageIdentificator.shutdown();
 
         System.exit(0);
 
@@ -12,24 +12,37 @@ import com.crawlergram.structures.TMessage;
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.results.TCResults;
 import com.crawlergram.textclassification.naivebayes.NaiveBayes;
+import com.crawlergram.textclassification.naivebayes.structures.CompiledNaiveBayesModel;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
+/**
+ * Naive Bayes classifier. The model file is loaded once (lazily on the first classification or eagerly)
+ * and the compiled model is shared read-only by all the dialogs and threads.
+ * With hot reload the file is checked (modification time and size) at most once per reload interval,
+ * changed model is loaded and replaces the old one, classifications in progress finish with the old model.
+ */
 public class NaiveBayesModel implements ClassificationModel {
 
-    private NaiveBayes nb;
-    private String modelPath;
+    private NaiveBayes nb; // training and saving
+    private String modelPath; // model file (null - model trained in memory is used)
+    private boolean hotReload; // reload model when the file changes
+    private long reloadInterval; // min time between checks of the file (ms)
+
+    private volatile LoadedModel loaded; // current model (null - not loaded yet)
+    private final Object loadLock = new Object();
 
     public NaiveBayesModel(NaiveBayesModelBuilder builder) {
         this.nb = builder.nb;
         this.modelPath = builder.modelPath;
+        this.hotReload = builder.hotReload;
+        this.reloadInterval = builder.reloadInterval;
+        if (builder.eagerLoading)
+            getCompiledModel();
     }
 
     /**
@@ -40,69 +53,146 @@ public class NaiveBayesModel implements ClassificationModel {
     @Override
     public TCResults classify(TDialog dialog) {
         TCResults res = new TCResults();
-        nb.loadModel(modelPath);
-        if (nb.getModel().isValid()) {
+        CompiledNaiveBayesModel model = getCompiledModel();
+        if (model != null) {
             for (TMessage msg : dialog.getMessages()) {
-                res.getScores().add(nb.classify(msg.getTokens()));
+                if ((msg.getTokenIds() != null) && (dialog.getVocabulary() != null))
+                    res.getScores().add(model.toMap(model.scores(msg.getTokenIds(), dialog.getVocabulary())));
+                else
+                    res.getScores().add(model.toMap(model.scores(msg.getTokens())));
+                res.getMessageIds().add(msg.getId());
             }
         }
         return res;
     }
 
     /**
-     * Model training
+     * returns current model (loads it on the first call and reloads it if the file was changed), null if
+     * there is no valid model
+     */
+    public CompiledNaiveBayesModel getCompiledModel() {
+        if (modelPath == null)
+            return nb.getCompiledModel();
+        LoadedModel current = loaded;
+        if ((current == null) || (hotReload && current.isStale(reloadInterval))) {
+            synchronized (loadLock) {
+                current = loaded;
+                if ((current == null) || (hotReload && current.isStale(reloadInterval)))
+                    current = load(current);
+            }
+        }
+        return current.model;
+    }
+
+    /**
+     * forces reading of the model file on the next classification
+     */
+    public void reload() {
+        synchronized (loadLock) {
+            loaded = null;
+        }
+    }
+
+    /**
+     * loads model file, keeps the previous model if the file can't be loaded
+     *
+     * @param previous previous model (can be null)
+     */
+    private LoadedModel load(LoadedModel previous) {
+        File file = new File(modelPath);
+        long lastModified = file.lastModified();
+        long length = file.length();
+        LoadedModel current;
+        if ((previous != null) && (previous.lastModified == lastModified) && (previous.length == length)) {
+            current = new LoadedModel(previous.model, lastModified, length);
+        } else {
+            NaiveBayes fresh = new NaiveBayes();
+            fresh.loadModel(modelPath);
+            CompiledNaiveBayesModel model = fresh.getCompiledModel();
+            if ((model == null) && (previous != null) && (previous.model != null)) {
+                System.out.println("Unable to reload NB model, previous model is used: " + modelPath);
+                model = previous.model;
+            }
+            current = new LoadedModel(model, lastModified, length);
+        }
+        loaded = current;
+        return current;
+    }
+
+    /**
+     * immutable snapshot of the loaded model and the state of its file
+     */
+    private static class LoadedModel {
+        final CompiledNaiveBayesModel model; // null - model is not valid
+        final long lastModified;
+        final long length;
+        final long checkedAt; // time of the last check of the file (ms)
+
+        LoadedModel(CompiledNaiveBayesModel model, long lastModified, long length) {
+            this.model = model;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checkedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * true if the file should be checked again
+         */
+        boolean isStale(long reloadInterval) {
+            return System.currentTimeMillis() - checkedAt >= reloadInterval;
+        }
+    }
+
+    /**
+     * Model training. Files are streamed: texts are tokenized and counted in parallel chunks and never kept,
+     * memory is bounded by the vocabulary.
      *
      * @param trainingFiles map of training files: <category, file path>
      */
     @Override
     public void trainModel(Map<String, File> trainingFiles) {
-        Map<String, List<List<String>>> trainingSet = openTrainingFiles(trainingFiles);
-        if (!trainingSet.isEmpty()){
-            nb.train(trainingSet);
-        } else {
-            System.out.println("Impossible to train NB model");
+        try {
+            if (trainingFiles.isEmpty())
+                throw new IOException("no training files");
+            nb.train(toPaths(trainingFiles), newTokenizer()::tokenizeToList);
+        } catch (IOException e) {
+            System.out.println("Impossible to train NB model: " + e.getMessage());
             System.exit(1);
         }
     }
 
     /**
-     * converts training files of different categories to map
+     * Incremental training: folds new documents into the trained (or loaded with stats) model,
+     * cost is proportional to the size of the new documents
      *
-     * @param trainingFiles training files
-     * @return
+     * @param trainingFiles map of files with new documents: <category, file path>
      */
-    private Map<String, List<List<String>>> openTrainingFiles(Map<String, File> trainingFiles) {
-        Map<String, List<List<String>>> trainingSet = new HashMap<>();
-        for (Map.Entry<String, File> entry : trainingFiles.entrySet()) {
-            String category = entry.getKey();
-            File path = entry.getValue();
-            try {
-                List<List<String>> data = openTrainingFile(path);
-                trainingSet.put(category, data);
-            } catch (IOException e) {
-                System.out.println("Impossible to open file: " + category);
-                return new HashMap<>();
-            }
+    public void updateModel(Map<String, File> trainingFiles) {
+        try {
+            nb.update(toPaths(trainingFiles), newTokenizer()::tokenizeToList);
+        } catch (IOException e) {
+            System.out.println("Impossible to update NB model: " + e.getMessage());
         }
-        return trainingSet;
     }
 
     /**
-     * Opens training file and tokenizes content
+     * converts training files of different categories to paths
      *
-     * @param file file
-     * @throws IOException
+     * @param trainingFiles training files
+     * @return
      */
-    private List<List<String>> openTrainingFile(File file) throws IOException {
-        List<List<String>> lines = new ArrayList<>();
-        Tokenizer t = new Tokenizer.TokenizerBuilder(true).build();
-        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                lines.add(t.tokenizeToList(line));
-            }
-        }
-        return lines;
+    private Map<String, Path> toPaths(Map<String, File> trainingFiles) {
+        Map<String, Path> paths = new HashMap<>();
+        for (Map.Entry<String, File> entry : trainingFiles.entrySet())
+            paths.put(entry.getKey(), entry.getValue().toPath());
+        return paths;
+    }
+
+    /**
+     * tokenizer of training texts (shared by the counting threads)
+     */
+    private Tokenizer newTokenizer() {
+        return new Tokenizer.TokenizerBuilder(true).build();
     }
 
     /**
@@ -113,23 +203,95 @@ public class NaiveBayesModel implements ClassificationModel {
     @Override
     public void saveModel(String modelPath) {
         nb.saveModel(modelPath);
+        if (modelPath.equals(this.modelPath))
+            reload();
+    }
+
+    /**
+     * saves feature stats of the model (needed for updates after loading)
+     *
+     * @param statsPath path to save the stats
+     */
+    public void saveStats(String statsPath) {
+        nb.saveStats(statsPath);
+    }
+
+    /**
+     * loads feature stats of the model
+     *
+     * @param statsPath path to the stats
+     */
+    public void loadStats(String statsPath) {
+        nb.loadStats(statsPath);
     }
 
     public static class NaiveBayesModelBuilder {
 
         NaiveBayes nb = new NaiveBayes();
         private String modelPath;
+        private boolean eagerLoading = false;
+        private boolean hotReload = false;
+        private long reloadInterval = 10000;
 
         public NaiveBayesModelBuilder setChiSquareThreshold(double chiSquareThreshold) {
             this.nb.setChiSquareThreshold(chiSquareThreshold);
             return this;
         }
 
+        /**
+         * @param threads number of training threads
+         */
+        public NaiveBayesModelBuilder setThreads(int threads) {
+            this.nb.setThreads(threads);
+            return this;
+        }
+
+        /**
+         * @param maxFeatures max number of features selected by chi-square (0 - unlimited)
+         */
+        public NaiveBayesModelBuilder setMaxFeatures(int maxFeatures) {
+            this.nb.setMaxFeatures(maxFeatures);
+            return this;
+        }
+
+        /**
+         * @param reselectOnUpdate re-run chi-square feature selection after each update (otherwise features are
+         *                         kept until NaiveBayes.reselectFeatures())
+         */
+        public NaiveBayesModelBuilder setReselectOnUpdate(boolean reselectOnUpdate) {
+            this.nb.setReselectOnUpdate(reselectOnUpdate);
+            return this;
+        }
+
         public NaiveBayesModelBuilder setModelPath(String modelPath) {
             this.modelPath = modelPath;
             return this;
         }
 
+        /**
+         * @param eagerLoading load the model while building (otherwise - on the first classification)
+         */
+        public NaiveBayesModelBuilder setEagerLoading(boolean eagerLoading) {
+            this.eagerLoading = eagerLoading;
+            return this;
+        }
+
+        /**
+         * @param hotReload reload the model when its file changes
+         */
+        public NaiveBayesModelBuilder setHotReload(boolean hotReload) {
+            this.hotReload = hotReload;
+            return this;
+        }
+
+        /**
+         * @param reloadInterval min time between checks of the model file (ms)
+         */
+        public NaiveBayesModelBuilder setReloadInterval(long reloadInterval) {
+            this.reloadInterval = Math.max(0, reloadInterval);
+            return this;
+        }
+
         /**
          * builder
          */
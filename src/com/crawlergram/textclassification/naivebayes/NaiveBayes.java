@@ -13,23 +13,36 @@
  */
 package com.crawlergram.textclassification.naivebayes;
 
+import com.crawlergram.structures.TVocabulary;
 import com.crawlergram.textclassification.naivebayes.features.ChiSquare;
 import com.crawlergram.textclassification.naivebayes.features.FeatureExtractor;
 import com.crawlergram.textclassification.naivebayes.features.StatsCalculator;
+import com.crawlergram.textclassification.naivebayes.structures.CompiledNaiveBayesModel;
 import com.crawlergram.textclassification.naivebayes.structures.FeatureStats;
 import com.crawlergram.textclassification.naivebayes.structures.NaiveBayesModel;
-import com.crawlergram.textclassification.naivebayes.structures.TextDoc;
 import com.fasterxml.jackson.core.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
 
 
 public class NaiveBayes {
 
     private double chiSquareThreshold; // feature extraction threshold
+    private int maxFeatures = 0; // max number of selected features (0 - unlimited)
+    private int threads = Runtime.getRuntime().availableProcessors(); // training threads
+    private boolean reselectOnUpdate = false; // re-run feature selection after updates (lazily, on the next use)
     private NaiveBayesModel model;
+    private volatile CompiledNaiveBayesModel compiled; // read-only snapshot for classification (null - model is not valid)
+    private volatile boolean stale = false; // model was changed since the snapshot was compiled
+    private FeatureStats stats; // counts of all the features in all the training data (null - unknown)
+    private Set<String> selected; // features of the model
+    private Map<String, Double> occurrences; // occurrences of the selected features in categories
+    private boolean selectionStale = false; // model has to be estimated from stats before the next use
 
     public NaiveBayes(){
         this.chiSquareThreshold = 6.63; //equivalent to pvalue 0.01
@@ -38,7 +51,7 @@ public class NaiveBayes {
 
     public NaiveBayes(double chiSquareThreshold, NaiveBayesModel model){
         this.chiSquareThreshold = chiSquareThreshold;
-        this.model = model;
+        setModel(model);
     }
 
     public NaiveBayes(double chiSquareThreshold){
@@ -46,12 +59,51 @@ public class NaiveBayes {
         this.model = null;
     }
 
-    public NaiveBayesModel getModel() {
+    public synchronized NaiveBayesModel getModel() {
+        if (stale)
+            refresh();
         return model;
     }
 
-    public void setModel(NaiveBayesModel model) {
+    public synchronized void setModel(NaiveBayesModel model) {
         this.model = model;
+        this.selectionStale = false;
+        restoreSelection();
+        compile();
+    }
+
+    /**
+     * returns compiled snapshot of the model without locking, it's shared read-only by the classifying threads.
+     * The lock is taken only if the model was changed since the last compilation, updates in progress
+     * don't block the classification (the previous snapshot is used).
+     */
+    public CompiledNaiveBayesModel getCompiledModel() {
+        if (stale) {
+            synchronized (this) {
+                if (stale)
+                    refresh();
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * compiles current model for classification
+     */
+    private void compile() {
+        compiled = ((model != null) && model.isValid()) ? CompiledNaiveBayesModel.compile(model) : null;
+        stale = false;
+    }
+
+    /**
+     * runs pending feature selection and compiles the model (under the lock)
+     */
+    private void refresh() {
+        if (selectionStale && (stats != null)) {
+            selectionStale = false;
+            runInPool(() -> estimate(stats));
+        }
+        compile();
     }
 
     public double getChiSquareThreshold() {
@@ -62,78 +114,275 @@ public class NaiveBayes {
         this.chiSquareThreshold = chiSquareThreshold;
     }
 
+    public int getMaxFeatures() {
+        return maxFeatures;
+    }
+
+    public void setMaxFeatures(int maxFeatures) {
+        this.maxFeatures = maxFeatures;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public boolean isReselectOnUpdate() {
+        return reselectOnUpdate;
+    }
+
+    public void setReselectOnUpdate(boolean reselectOnUpdate) {
+        this.reselectOnUpdate = reselectOnUpdate;
+    }
+
+    public FeatureStats getStats() {
+        return stats;
+    }
+
     /**
-     * Preprocesses the original dataset and converts it to a List of Documents.
+     * Performs feature selection on the counts of the features. It returns the selected features
+     * (and their scores), which are later used for calculating the probabilities of the model.
      *
-     * @param trainingSet tokenized lists of several categories
+     * @param stats statistics about all the features found in the documents (not changed)
      * @return
      */
-    private List<TextDoc> preprocessTrainingSet(Map<String, List<List<String>>> trainingSet) {
-        List<TextDoc> dataset = new ArrayList<>();
+    private Map<String, Double> selectFeatures(FeatureStats stats) {
+        FeatureExtractor featureExtractor = new ChiSquare.ChiSquareBuilder(chiSquareThreshold)
+                .setMaxFeatures(maxFeatures).build();
+        //we pass this information to the feature selection algorithm and we get a list with the selected features
+        return featureExtractor.run(stats);
+    }
 
-        for (Map.Entry<String, List<List<String>>> entry: trainingSet.entrySet()){
-            String category = entry.getKey();
-            List<List<String>> texts = entry.getValue();
+    /**
+     * Trains a Naive Bayes classifier by using the Multinomial Model by passing
+     * the trainingSet and the prior probabilities.
+     * Stats are counted by shards of texts in parallel, selection and estimation are parallel over features.
+     *
+     * @param trainingSet tokenized lists of several categories
+     * @throws IllegalArgumentException
+     */
+    public synchronized void train(Map<String, List<List<String>>> trainingSet) {
+        //the FeatureStats object contains statistics about all the features found in the documents
+        train(runInPool(() -> calculateStats(trainingSet)));
+    }
 
-            for (List<String> text: texts){
-                TextDoc doc = new TextDoc(text);
-                doc.category = category;
-                dataset.add(doc);
+    /**
+     * Trains the classifier on texts streamed from files (one text per line), texts are tokenized and counted
+     * in parallel chunks and never kept in memory.
+     *
+     * @param trainingFiles files of several categories: <category, file path>
+     * @param tokenizer     tokenizer of a text (thread-safe)
+     * @throws IOException
+     */
+    public synchronized void train(Map<String, Path> trainingFiles, Function<String, List<String>> tokenizer)
+            throws IOException {
+        train(calculateStats(trainingFiles, tokenizer));
+    }
+
+    /**
+     * Trains the classifier on already counted stats of the training set (stats are kept for updates)
+     *
+     * @param featureStats stats of all the features of the training set
+     */
+    public synchronized void train(FeatureStats featureStats) {
+        stats = featureStats;
+        runInPool(() -> estimate(featureStats));
+        selectionStale = false;
+        compile();
+    }
+
+    /**
+     * Folds new documents into the model without retraining. Only the new documents are counted, their counts
+     * are added to the stats, then priors, normalizers of the categories and likelihoods of the features
+     * found in the new documents are recomputed, so the cost is proportional to the size of the update.
+     * Selected features are kept, feature selection is re-run over all the stats only after reselectFeatures()
+     * (or after each update with reselectOnUpdate), lazily on the next use of the model.
+     *
+     * @param trainingSet tokenized lists of new texts of several categories
+     */
+    public synchronized void update(Map<String, List<List<String>>> trainingSet) {
+        update(runInPool(() -> calculateStats(trainingSet)));
+    }
+
+    /**
+     * Folds new texts streamed from files (one text per line) into the model, see update(trainingSet)
+     *
+     * @param trainingFiles files with new texts of several categories: <category, file path>
+     * @param tokenizer     tokenizer of a text (thread-safe)
+     * @throws IOException
+     */
+    public synchronized void update(Map<String, Path> trainingFiles, Function<String, List<String>> tokenizer)
+            throws IOException {
+        update(calculateStats(trainingFiles, tokenizer));
+    }
+
+    /**
+     * Folds counted stats of new texts into the model, see update(trainingSet). Counts of delta are reused,
+     * it shouldn't be used after the update.
+     *
+     * @param delta stats of the new texts
+     */
+    public synchronized void update(FeatureStats delta) {
+        if (stats == null) {
+            if ((model != null) && model.isValid()) {
+                System.err.println("No feature stats of the model, unable to update it");
+                return;
+            }
+            train(delta);
+            return;
+        }
+        if ((model == null) || selectionStale || reselectOnUpdate) {
+            stats.merge(delta);
+            reselectFeatures();
+            return;
+        }
+        if (model.logNormalizers.isEmpty())
+            factorize();
+        //occurrences of the selected features in categories (before the counts of delta are reused by stats)
+        Set<String> updated = new HashSet<>();
+        for (Map.Entry<String, Map<String, Integer>> entry : delta.featureCategoryCount.entrySet()) {
+            if (selected.contains(entry.getKey())) {
+                updated.add(entry.getKey());
+                for (Map.Entry<String, Integer> count : entry.getValue().entrySet())
+                    occurrences.merge(count.getKey(), (double) count.getValue(), Double::sum);
             }
         }
-        return dataset;
+        stats.merge(delta);
+        //priors and normalizers of all the categories (n is changed)
+        model.n = stats.n;
+        model.c = stats.categoryCounts.size();
+        model.logPriors = estimatePriors(stats);
+        for (String category : stats.categoryCounts.keySet())
+            model.logNormalizers.put(category, Math.log(occurrences.getOrDefault(category, 0.0) + model.d));
+        //likelihoods of the updated features
+        for (String feature : updated) {
+            Map<String, Double> logLikelihoods = model.logLikelihoods.get(feature);
+            for (Map.Entry<String, Integer> count : stats.featureCategoryCount.get(feature).entrySet())
+                logLikelihoods.put(count.getKey(), Math.log(count.getValue() + 1.0));
+        }
+        stale = true;
+    }
+
+    /**
+     * Re-runs feature selection over all the stats and re-estimates the model. It's done lazily,
+     * on the next use of the model.
+     */
+    public synchronized void reselectFeatures() {
+        if (stats != null) {
+            selectionStale = true;
+            stale = true;
+        }
     }
 
     /**
-     * Gathers the required counts for the features and performs feature selection
-     * on the above counts. It returns a FeatureStats object that is later used
-     * for calculating the probabilities of the model.
+     * counts stats of the training set by shards of texts in parallel (should be run in the pool)
      *
-     * @param docs documents
-     * @return
+     * @param trainingSet tokenized lists of several categories
      */
-    private FeatureStats selectFeatures(List<TextDoc> docs) {
-        FeatureExtractor featureExtractor = new ChiSquare.ChiSquareBuilder(chiSquareThreshold).build();
-        //the FeatureStats object contains statistics about all the features found in the documents
-        //extract the stats of the docs
-        FeatureStats stats = new StatsCalculator().calculateFeatureStats(docs);
-        //we pass this information to the feature selection algorithm and we get a list with the selected features
-        Map<String, Double> selectedFeatures = featureExtractor.run(stats);
-        //clip from the stats all the features that are not selected
-        Iterator<Map.Entry<String, Map<String, Integer>>> it = stats.featureCategoryCount.entrySet().iterator();
-        while (it.hasNext()) {
-            String feature = it.next().getKey();
-            if (!selectedFeatures.containsKey(feature)) {
-                //if the feature is not in the selectedFeatures list remove it
-                it.remove();
+    private FeatureStats calculateStats(Map<String, List<List<String>>> trainingSet) {
+        //flatten the dataset: category of each text
+        List<String> categories = new ArrayList<>();
+        List<List<String>> texts = new ArrayList<>();
+        for (Map.Entry<String, List<List<String>>> entry: trainingSet.entrySet()){
+            for (List<String> text: entry.getValue()){
+                categories.add(entry.getKey());
+                texts.add(text);
             }
         }
-        return stats;
+        return new StatsCalculator().calculateFeatureStats(categories, texts, ForkJoinTask.getPool());
     }
 
     /**
-     * Trains a Naive Bayes classifier by using the Multinomial Model by passing
-     * the trainingSet and the prior probabilities.
+     * counts stats of the files of several categories, files are streamed one by one
      *
-     * @param trainingSet tokenized lists of several categories
-     * @throws IllegalArgumentException
+     * @param trainingFiles files of several categories: <category, file path>
+     * @param tokenizer     tokenizer of a text
+     * @throws IOException
+     */
+    private FeatureStats calculateStats(Map<String, Path> trainingFiles, Function<String, List<String>> tokenizer)
+            throws IOException {
+        StatsCalculator calculator = new StatsCalculator();
+        FeatureStats featureStats = new FeatureStats();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (Map.Entry<String, Path> entry : trainingFiles.entrySet())
+                featureStats.merge(calculator.calculateFeatureStats(entry.getKey(), entry.getValue(), tokenizer, pool));
+        } finally {
+            pool.shutdown();
+        }
+        return featureStats;
+    }
+
+    /**
+     * runs the task in a pool of training threads (parallel streams of the task are run in the same pool)
      */
-    public void train(Map<String, List<List<String>>> trainingSet) {
-        //preprocess the given dataset
-        List<TextDoc> dataset = preprocessTrainingSet(trainingSet);
+    private <T> T runInPool(Callable<T> task) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(task).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-        //produce the feature stats and select the best features
-        FeatureStats featureStats = selectFeatures(dataset);
+    private void runInPool(Runnable task) {
+        runInPool(Executors.callable(task));
+    }
+
+    /**
+     * selects the best features and estimates the model
+     *
+     * @param stats stats of the training set
+     */
+    private void estimate(FeatureStats stats) {
+        //select the best features (threshold and max features need the scores of all the features first)
+        Set<String> selectedFeatures = selectFeatures(stats).keySet();
 
         //intiliaze the model of the classifier
-        model = new NaiveBayesModel(featureStats);
-        model.logPriors = estimatePriors(featureStats);
+        model = new NaiveBayesModel(stats);
+        model.d = selectedFeatures.size();
+        model.logPriors = estimatePriors(stats);
 
-        // Laplace smoothing occurances calculation (also known as add-1)
-        Map<String, Double> featureOccurrencesInCategory = laplaceSmoothingOccurances(featureStats);
+        //estimate log likelihoods and Laplace smoothing occurances in one pass over the selected features
+        occurrences = estimateLogLikelihoods(stats, selectedFeatures);
 
-        //estimate log likelihoods
-        model.logLikelihoods = estimateLogLikelihoods(featureStats, featureOccurrencesInCategory);
+        selected = new HashSet<>(selectedFeatures);
+    }
+
+    /**
+     * converts normalized likelihoods of a loaded model to log( count(x,c) + 1 ) and normalizers (once, before
+     * the first update, trained models are estimated factorized)
+     */
+    private void factorize() {
+        runInPool(() -> model.logLikelihoods.entrySet().parallelStream().forEach(entry -> {
+            Map<String, Integer> counts = stats.featureCategoryCount.getOrDefault(entry.getKey(), new HashMap<>());
+            Map<String, Double> logLikelihoods = new HashMap<>();
+            for (Map.Entry<String, Integer> count : counts.entrySet())
+                logLikelihoods.put(count.getKey(), Math.log(count.getValue() + 1.0));
+            entry.setValue(logLikelihoods);
+        }));
+        for (String category : model.logPriors.keySet())
+            model.logNormalizers.put(category, Math.log(occurrences.getOrDefault(category, 0.0) + model.d));
+    }
+
+    /**
+     * restores selected features and their occurrences when both the model and its stats are known
+     * (model and stats are loaded separately)
+     */
+    private void restoreSelection() {
+        if ((model == null) || (stats == null) || selectionStale)
+            return;
+        selected = new HashSet<>(model.logLikelihoods.keySet());
+        occurrences = new HashMap<>();
+        for (String feature : selected) {
+            Map<String, Integer> counts = stats.featureCategoryCount.get(feature);
+            if (counts != null)
+                for (Map.Entry<String, Integer> count : counts.entrySet())
+                    occurrences.merge(count.getKey(), (double) count.getValue(), Double::sum);
+        }
     }
 
     /**
@@ -153,54 +402,45 @@ public class NaiveBayes {
     }
 
     /**
-     * Laplace Smoothing occurances calculation (also known as add-1)
+     * Estimates log Likelihoods of the selected features in one parallel pass, which also sums the Laplace
+     * Smoothing occurances (also known as add-1) of the categories. Likelihoods are kept as log( count(x,c) + 1 )
+     * and normalized by log( sum_x count(x,c) + d ) of the category (see NaiveBayesModel.logNormalizers),
+     * so they don't wait for the sums and updates don't have to factorize the model.
      *
-     * @param featureStats calculated stats
-     * @return
+     * @param stats    calculated stats
+     * @param features selected features
+     * @return occurrences of the selected features in categories
      */
-    private Map<String, Double> laplaceSmoothingOccurances(FeatureStats featureStats){
+    private Map<String, Double> estimateLogLikelihoods(FeatureStats stats, Set<String> features){
+        String[] categories = model.logPriors.keySet().toArray(new String[0]);
+        Map<String, Map<String, Double>> logLLs = new ConcurrentHashMap<>();
+        long[] sums = features.parallelStream().collect(
+                () -> new long[categories.length],
+                (sum, feature) -> {
+                    Map<String, Integer> featureCategoryCounts = stats.featureCategoryCount.get(feature);
+                    Map<String, Double> logLikelihoods = new HashMap<>();
+                    for (int c = 0; c < categories.length; c++) {
+                        Integer count = featureCategoryCounts.get(categories[c]);
+                        if (count != null) {
+                            sum[c] += count;
+                            logLikelihoods.put(categories[c], Math.log(count + 1.0));
+                        }
+                    }
+                    logLLs.put(feature, logLikelihoods);
+                },
+                (sum1, sum2) -> {
+                    for (int c = 0; c < categories.length; c++)
+                        sum1[c] += sum2[c];
+                });
+        model.logLikelihoods = logLLs;
         Map<String, Double> featureOccurrencesInCategory = new HashMap<>();
-
-        for (String category : model.logPriors.keySet()) {
-            Double featureOccSum = 0.0;
-            for (Map<String, Integer> categoryListOccurrences : featureStats.featureCategoryCount.values()) {
-                Integer occurrences = categoryListOccurrences.get(category);
-                if (occurrences != null)
-                    featureOccSum += occurrences;
-            }
-            featureOccurrencesInCategory.put(category, featureOccSum);
+        for (int c = 0; c < categories.length; c++) {
+            featureOccurrencesInCategory.put(categories[c], (double) sums[c]);
+            model.logNormalizers.put(categories[c], Math.log(sums[c] + model.d));
         }
         return featureOccurrencesInCategory;
     }
 
-    /**
-     * estimates log Likelihoods
-     *
-     * @param featureStats calculated stats
-     * @param featureOccurrences Laplace Smoothing occurances
-     * @return
-     */
-    private Map<String, Map<String, Double>> estimateLogLikelihoods(FeatureStats featureStats,
-                                                                    Map<String, Double> featureOccurrences){
-        Map<String, Map<String, Double>> logLLs = new HashMap<>();
-        for (String category : model.logPriors.keySet()) {
-            for (Map.Entry<String, Map<String, Integer>> entry : featureStats.featureCategoryCount.entrySet()) {
-                String feature = entry.getKey();
-                Map<String, Integer> featureCategoryCounts = entry.getValue();
-
-                Integer count = featureCategoryCounts.get(category);
-                if (count == null) count = 0;
-
-                double logLikelihood = Math.log((count + 1.0) / (featureOccurrences.get(category) + model.d));
-                if (!logLLs.containsKey(feature)) {
-                    logLLs.put(feature, new HashMap<>());
-                }
-                logLLs.get(feature).put(category, logLikelihood);
-            }
-        }
-        return logLLs;
-    }
-
     /**
      * Predicts the category of a text by using an already trained classifier
      * and returns its category.
@@ -209,42 +449,38 @@ public class NaiveBayes {
      * @return
      */
     public Map<String, Double> classify(List<String> text) {
-        if (!model.isValid()){
+        CompiledNaiveBayesModel compiled = getCompiledModel();
+        if (compiled == null){
             System.err.println("Invalid knowledge base");
             return new HashMap<>();
         }
-        TextDoc doc = new TextDoc(text);
-
-        String maxScoreCategory = null;
-        Double maxScore = Double.NEGATIVE_INFINITY;
-
-        Map<String, Double> predictionScores = new HashMap<>();
-        for (Map.Entry<String, Double> prior : model.logPriors.entrySet()) {
-            String category = prior.getKey();
-            Double logprob = prior.getValue(); //intialize the scores with the priors
-
-            //foreach feature of the document
-            for (Map.Entry<String, Integer> tokenCount : doc.tokenCounts.entrySet()) {
-                String feature = tokenCount.getKey();
-
-                if (!model.logLikelihoods.containsKey(feature))
-                    continue; //if the feature does not exist in the knowledge base skip it
+        return compiled.toMap(compiled.scores(text));
+    }
 
-                Integer occurrences = tokenCount.getValue(); //get its occurrences in text
-                logprob += occurrences * model.logLikelihoods.get(feature).get(category); //multiply loglikelihood score with occurrences
-            }
-            predictionScores.put(category, logprob);
+    /**
+     * Predicts the category of a text given as token IDs. Occurrences are counted by sorting the IDs
+     * (no hashing of tokens), each unique token is looked up in the knowledge base only once.
+     *
+     * @param tokenIds   token IDs of the text to classify
+     * @param vocabulary vocabulary of token IDs
+     */
+    public Map<String, Double> classify(int[] tokenIds, TVocabulary vocabulary) {
+        CompiledNaiveBayesModel compiled = getCompiledModel();
+        if (compiled == null){
+            System.err.println("Invalid knowledge base");
+            return new HashMap<>();
         }
-        return predictionScores; //return the category with heighest score
+        return compiled.toMap(compiled.scores(tokenIds, vocabulary));
     }
 
     /**
-     * saves model
+     * saves model (likelihoods of updated model are saved normalized)
      *
      * @param path path to file
      */
-    public void saveModel(String path){
-        if (model.isValid()){
+    public synchronized void saveModel(String path){
+        refresh();
+        if ((model != null) && model.isValid()){
             try {
                 JsonFactory jFactory = new JsonFactory();
                 JsonGenerator jGenerator = jFactory.createGenerator(new File(path), JsonEncoding.UTF8);
@@ -292,7 +528,7 @@ public class NaiveBayes {
         for (Map.Entry<String, Map<String, Double>> entry: model.logLikelihoods.entrySet()){
             jGenerator.writeFieldName(entry.getKey());
             jGenerator.writeStartObject();
-            writeLoglikelihood(jGenerator, entry.getValue());
+            writeLoglikelihood(jGenerator, entry.getKey());
             jGenerator.writeEndObject();
         }
         jGenerator.writeEndObject();
@@ -302,12 +538,15 @@ public class NaiveBayes {
      * writes single log likelihood
      *
      * @param jGenerator JSON generator
-     * @param likelihood entry
+     * @param feature feature
      * @throws IOException
      */
-    private void writeLoglikelihood(JsonGenerator jGenerator, Map<String, Double> likelihood) throws IOException{
-        for (Map.Entry<String, Double> entry: likelihood.entrySet())
-            jGenerator.writeNumberField(entry.getKey(), entry.getValue());
+    private void writeLoglikelihood(JsonGenerator jGenerator, String feature) throws IOException{
+        for (String category: model.logPriors.keySet()) {
+            Double logLikelihood = model.logLikelihood(feature, category);
+            if (logLikelihood != null)
+                jGenerator.writeNumberField(category, logLikelihood);
+        }
     }
 
     /**
@@ -315,7 +554,7 @@ public class NaiveBayes {
      *
      * @param path path to file
      */
-    public void loadModel(String path){
+    public synchronized void loadModel(String path){
         try {
             model = new NaiveBayesModel();
             JsonFactory jFactory = new JsonFactory();
@@ -348,6 +587,9 @@ public class NaiveBayes {
             System.out.println("Unable to load model");
             e.printStackTrace();
         }
+        selectionStale = false;
+        restoreSelection();
+        compile();
     }
 
     /**
@@ -388,6 +630,116 @@ public class NaiveBayes {
         }
     }
 
+    /**
+     * saves stats of all the features (they are needed to update the model after loading)
+     *
+     * @param path path to file
+     */
+    public synchronized void saveStats(String path){
+        if (stats == null) {
+            System.out.println("No feature stats to save");
+            return;
+        }
+        try {
+            JsonFactory jFactory = new JsonFactory();
+            JsonGenerator jGenerator = jFactory.createGenerator(new File(path), JsonEncoding.UTF8);
+            jGenerator.writeStartObject();
+
+            jGenerator.writeNumberField("n", stats.n);
+
+            jGenerator.writeFieldName("categories");
+            writeCounts(jGenerator, stats.categoryCounts);
+
+            jGenerator.writeFieldName("features");
+            jGenerator.writeStartObject();
+            for (Map.Entry<String, Map<String, Integer>> entry: stats.featureCategoryCount.entrySet()){
+                jGenerator.writeFieldName(entry.getKey());
+                writeCounts(jGenerator, entry.getValue());
+            }
+            jGenerator.writeEndObject();
+
+            jGenerator.writeEndObject();
+            jGenerator.close();
+        } catch (IOException e) {
+            System.out.println("Unable to save feature stats");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * writes counts as object
+     *
+     * @param jGenerator JSON generator
+     * @param counts counts
+     * @throws IOException
+     */
+    private void writeCounts(JsonGenerator jGenerator, Map<String, Integer> counts) throws IOException{
+        jGenerator.writeStartObject();
+        for (Map.Entry<String, Integer> entry: counts.entrySet())
+            jGenerator.writeNumberField(entry.getKey(), entry.getValue());
+        jGenerator.writeEndObject();
+    }
+
+    /**
+     * loads stats of all the features. If there is no model, it's estimated from the stats on the next use.
+     *
+     * @param path path to file
+     */
+    public synchronized void loadStats(String path){
+        try {
+            FeatureStats loadedStats = new FeatureStats();
+            JsonFactory jFactory = new JsonFactory();
+            JsonParser jParser = jFactory.createParser(new File(path));
+            // Continue until we find the end object
+            while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
+                // Get the field name
+                String fieldname = jParser.getCurrentName();
+                if (fieldname != null) {
+                    if (fieldname.equals("n")) {
+                        jParser.nextToken();
+                        loadedStats.n = jParser.getIntValue();
+                    } else if (fieldname.equals("categories")) {
+                        jParser.nextToken();
+                        loadedStats.categoryCounts = readCounts(jParser);
+                    } else if (fieldname.equals("features")) {
+                        jParser.nextToken();
+                        while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
+                            String feature = jParser.getCurrentName();
+                            jParser.nextToken();
+                            loadedStats.featureCategoryCount.put(feature, readCounts(jParser));
+                        }
+                    }
+                }
+            }
+            jParser.close();
+            stats = loadedStats;
+        } catch (Exception e) {
+            System.out.println("Unable to load feature stats");
+            e.printStackTrace();
+            return;
+        }
+        if ((model == null) || !model.isValid())
+            reselectFeatures();
+        else
+            restoreSelection();
+    }
+
+    /**
+     * reads counts object
+     *
+     * @param jParser parser
+     * @throws IOException
+     */
+    private Map<String, Integer> readCounts(JsonParser jParser) throws IOException{
+        Map<String, Integer> counts = new HashMap<>();
+        while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
+            String category = jParser.getCurrentName();
+            jParser.nextToken();
+            counts.put(category, jParser.getIntValue());
+        }
+        return counts;
+    }
+
 
 
 }
@@ -7,66 +7,109 @@
 
 package com.crawlergram.textclassification.naivebayes.features;
 
+import com.crawlergram.structures.TopK;
 import com.crawlergram.textclassification.naivebayes.structures.FeatureStats;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class ChiSquare implements FeatureExtractor {
 
     double criticalLevel;
+    int maxFeatures; // max number of selected features with the highest scores (0 - unlimited)
 
     /**
      * Perform feature selection by using the chisquare non-parametrical statistical test.
+     * Features are scored in parallel (in the pool of the calling task, if any).
      *
      * @param stats calculated stats
      */
     public Map<String, Double> run(FeatureStats stats) {
-        Map<String, Double> selectedFeatures = new HashMap<>();
-
-        int n1dot, n0dot, n00, n01, n10, n11;
-        for (Map.Entry<String, Map<String, Integer>> entry1 : stats.featureCategoryCount.entrySet()) {
-            String feature = entry1.getKey();
-            Map<String, Integer> categoryList = entry1.getValue();
-            //calculate the N1. (number of documents that have the feature)
-            n1dot = 0;
-            for (Integer count : categoryList.values())
-                n1dot += count;
-            //also the N0. (number of documents that DONT have the feature)
-            n0dot = stats.n - n1dot;
-            for (Map.Entry<String, Integer> entry2 : categoryList.entrySet()) {
-                String category = entry2.getKey();
-                //n11 documents that have the feature and belong on the specific category
-                n11 = entry2.getValue();
-                //n01 documents that do not have the particular feature BUT they belong to the specific category
-                n01 = stats.categoryCounts.get(category) - n11;
-                //n00 documents that don't have the feature and don't belong to the specific category
-                n00 = n0dot - n01;
-                //n10 documents that have the feature and don't belong to the specific category
-                n10 = n1dot - n11;
-                //calculate the chisquare score based on the above statistics
-                Double chisquareScore = stats.n * Math.pow(n11 * n00 - n10 * n01, 2); // numerator
-                chisquareScore /= ((n11 + n01) * (n11 + n10) * (n10 + n00) * (n01 + n00)); // denominator
-                //if the score is larger than the critical value then add it in the list
-                if (chisquareScore >= criticalLevel) {
-                    Double previousScore = selectedFeatures.get(feature);
-                    if (previousScore == null || chisquareScore > previousScore) {
-                        selectedFeatures.put(feature, chisquareScore);
-                    }
-                }
-            }
+        Map<String, Double> selectedFeatures = new ConcurrentHashMap<>();
+        stats.featureCategoryCount.entrySet().parallelStream().forEach(entry -> {
+            double score = score(stats, entry.getValue());
+            //if the score is larger than the critical value then add it in the list
+            if (score >= criticalLevel)
+                selectedFeatures.put(entry.getKey(), score);
+        });
+        return (maxFeatures > 0) ? topFeatures(selectedFeatures, maxFeatures) : selectedFeatures;
+    }
+
+    /**
+     * returns the max chisquare score of the feature over the categories (counts are multiplied as doubles,
+     * products of large corpora don't fit int)
+     *
+     * @param stats        calculated stats
+     * @param categoryList counts of the feature in categories
+     */
+    private double score(FeatureStats stats, Map<String, Integer> categoryList) {
+        double maxScore = Double.NaN; // NaN - no category passes the critical level
+        double n1dot, n0dot, n00, n01, n10, n11;
+        //calculate the N1. (number of documents that have the feature)
+        n1dot = 0;
+        for (Integer count : categoryList.values())
+            n1dot += count;
+        //also the N0. (number of documents that DONT have the feature)
+        n0dot = stats.n - n1dot;
+        for (Map.Entry<String, Integer> entry : categoryList.entrySet()) {
+            String category = entry.getKey();
+            //n11 documents that have the feature and belong on the specific category
+            n11 = entry.getValue();
+            //n01 documents that do not have the particular feature BUT they belong to the specific category
+            n01 = stats.categoryCounts.get(category) - n11;
+            //n00 documents that don't have the feature and don't belong to the specific category
+            n00 = n0dot - n01;
+            //n10 documents that have the feature and don't belong to the specific category
+            n10 = n1dot - n11;
+            //calculate the chisquare score based on the above statistics
+            double chisquareScore = stats.n * Math.pow(n11 * n00 - n10 * n01, 2); // numerator
+            chisquareScore /= ((n11 + n01) * (n11 + n10) * (n10 + n00) * (n01 + n00)); // denominator
+            if ((chisquareScore >= criticalLevel) && (Double.isNaN(maxScore) || (chisquareScore > maxScore)))
+                maxScore = chisquareScore;
         }
-        return selectedFeatures;
+        return maxScore;
+    }
+
+    /**
+     * keeps k features with the highest scores (ties - in order of the map iteration)
+     *
+     * @param features features and their scores
+     * @param k        number of features
+     */
+    private Map<String, Double> topFeatures(Map<String, Double> features, int k) {
+        if (features.size() <= k) return features;
+        String[] names = new String[features.size()];
+        double[] scores = new double[features.size()];
+        int i = 0;
+        for (Map.Entry<String, Double> entry : features.entrySet()) {
+            names[i] = entry.getKey();
+            scores[i++] = entry.getValue();
+        }
+        Map<String, Double> top = new HashMap<>();
+        for (int index : TopK.topK(scores, k))
+            top.put(names[index], scores[index]);
+        return top;
     }
 
     public ChiSquare(ChiSquareBuilder builder) {
         this.criticalLevel = builder.criticalLevel;
+        this.maxFeatures = builder.maxFeatures;
     }
 
     public static class ChiSquareBuilder {
 
         double criticalLevel;
+        int maxFeatures = 0;
+
+        /**
+         * @param maxFeatures max number of selected features with the highest scores (0 - unlimited)
+         */
+        public ChiSquareBuilder setMaxFeatures(int maxFeatures) {
+            this.maxFeatures = maxFeatures;
+            return this;
+        }
 
         /**
          * builder
@@ -10,12 +10,21 @@ package com.crawlergram.textclassification.naivebayes.features;
 import com.crawlergram.textclassification.naivebayes.structures.FeatureStats;
 import com.crawlergram.textclassification.naivebayes.structures.TextDoc;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
 
 public class StatsCalculator {
 
+    private int shardSize = 1000; // max number of texts counted by one task
+
     /**
      * Generates a FeatureStats Object with metrics about he occurrences of the
      * keywords in categories, the number of category counts and the total number
@@ -25,37 +34,142 @@ public class StatsCalculator {
      */
     public FeatureStats calculateFeatureStats(List<TextDoc> messages) {
         FeatureStats stats = new FeatureStats();
+        for (TextDoc doc : messages)
+            addDoc(stats, doc);
+        return stats;
+    }
 
-        Map<String, Integer> featureCategoryCounts;
-        for (TextDoc doc : messages) {
-            ++stats.n; //increase the number of observations
-            String category = doc.category;
-
-            //increase the category counter by one
-            stats.categoryCounts.merge(category, 1, (a, b) -> a + b);
+    /**
+     * Calculates FeatureStats in parallel: texts are split into shards, each shard is counted separately
+     * (token counts of texts are never kept for the whole dataset) and stats of shards are merged.
+     *
+     * @param categories category of each text
+     * @param texts      tokenized texts
+     * @param pool       pool to run the shards
+     */
+    public FeatureStats calculateFeatureStats(List<String> categories, List<List<String>> texts, ForkJoinPool pool) {
+        return pool.invoke(new StatsTask(categories, texts, 0, texts.size()));
+    }
 
-            for (Map.Entry<String, Integer> entry : doc.tokenCounts.entrySet()) {
-                String feature = entry.getKey();
+    /**
+     * Streams texts of the category from file (one text per line). Lines are read in chunks of shardSize,
+     * chunks are tokenized and counted by the pool while the next ones are read, counts of chunks are merged
+     * as soon as they are ready. At most 2 chunks per thread are in flight and texts are never kept,
+     * so memory is bounded by the vocabulary, not by the size of the file.
+     *
+     * @param category  category of the texts
+     * @param file      file with texts
+     * @param tokenizer tokenizer of a line (thread-safe)
+     * @param pool      pool to tokenize and count the chunks
+     * @throws IOException
+     */
+    public FeatureStats calculateFeatureStats(String category, Path file, Function<String, List<String>> tokenizer,
+                                              ForkJoinPool pool) throws IOException {
+        FeatureStats stats = new FeatureStats();
+        Deque<ForkJoinTask<FeatureStats>> chunks = new ArrayDeque<>();
+        int maxChunks = 2 * pool.getParallelism();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>(shardSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+                if (lines.size() == shardSize) {
+                    if (chunks.size() == maxChunks)
+                        stats.merge(chunks.poll().join());
+                    chunks.add(pool.submit(countChunk(category, lines, tokenizer)));
+                    lines = new ArrayList<>(shardSize);
+                }
+            }
+            if (!lines.isEmpty())
+                chunks.add(pool.submit(countChunk(category, lines, tokenizer)));
+            while (!chunks.isEmpty())
+                stats.merge(chunks.poll().join());
+        } catch (IOException | RuntimeException e) {
+            // pending chunks are not needed if reading or counting fails
+            chunks.forEach(t -> t.cancel(true));
+            throw e;
+        }
+        return stats;
+    }
 
-                //get the counts of the feature in the categories
-                featureCategoryCounts = stats.featureCategoryCount.get(feature);
-                if (featureCategoryCounts == null) {
-                    //initialize it if it does not exist
-                    stats.featureCategoryCount.put(feature, new HashMap<>());
+    /**
+     * tokenizes and counts chunk of texts of the category
+     */
+    private static RecursiveTask<FeatureStats> countChunk(String category, List<String> lines,
+                                                          Function<String, List<String>> tokenizer) {
+        return new RecursiveTask<FeatureStats>() {
+            @Override
+            protected FeatureStats compute() {
+                FeatureStats stats = new FeatureStats();
+                for (String line : lines) {
+                    TextDoc doc = new TextDoc(tokenizer.apply(line));
+                    doc.category = category;
+                    addDoc(stats, doc);
                 }
+                return stats;
+            }
+        };
+    }
 
-                Integer featureCategoryCount = stats.featureCategoryCount.get(feature).get(category);
-                if (featureCategoryCount == null) featureCategoryCount = 0;
+    /**
+     * counts range of texts, splits it in halves while it is larger than the shard
+     */
+    private class StatsTask extends RecursiveTask<FeatureStats> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> categories;
+        private final List<List<String>> texts;
+        private final int from;
+        private final int to;
+
+        StatsTask(List<String> categories, List<List<String>> texts, int from, int to) {
+            this.categories = categories;
+            this.texts = texts;
+            this.from = from;
+            this.to = to;
+        }
 
-                //increase the number of occurrences of the feature in the category
-                stats.featureCategoryCount.get(feature).put(category, ++featureCategoryCount);
+        @Override
+        protected FeatureStats compute() {
+            if (to - from <= shardSize) {
+                FeatureStats stats = new FeatureStats();
+                for (int i = from; i < to; i++) {
+                    TextDoc doc = new TextDoc(texts.get(i));
+                    doc.category = categories.get(i);
+                    addDoc(stats, doc);
+                }
+                return stats;
             }
+            int mid = (from + to) >>> 1;
+            StatsTask left = new StatsTask(categories, texts, from, mid);
+            left.fork();
+            FeatureStats right = new StatsTask(categories, texts, mid, to).compute();
+            FeatureStats leftStats = left.join();
+            // the smaller stats are merged into the larger ones
+            return (leftStats.featureCategoryCount.size() >= right.featureCategoryCount.size())
+                    ? leftStats.merge(right) : right.merge(leftStats);
         }
+    }
 
-        return stats;
+    /**
+     * adds the counts of the document to stats
+     */
+    private static void addDoc(FeatureStats stats, TextDoc doc) {
+        ++stats.n;
+        stats.categoryCounts.merge(doc.category, 1, Integer::sum);
+        for (String feature : doc.tokenCounts.keySet())
+            stats.featureCategoryCount.computeIfAbsent(feature, k -> new HashMap<>()).merge(doc.category, 1, Integer::sum);
     }
 
     public StatsCalculator() {
     }
 
+    /**
+     * @param shardSize max number of texts counted by one parallel task
+     */
+    public StatsCalculator(int shardSize) {
+        this.shardSize = Math.max(1, shardSize);
+    }
+
 }
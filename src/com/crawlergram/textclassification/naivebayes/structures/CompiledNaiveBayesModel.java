@@ -0,0 +1,146 @@
+/*
+ * Title: CompiledNaiveBayesModel.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.textclassification.naivebayes.structures;
+
+import com.crawlergram.structures.TVocabulary;
+
+import java.util.*;
+
+/**
+ * Read-only form of NaiveBayesModel for classification. Features are interned to int IDs, log likelihoods of
+ * each feature are stored contiguously for all the categories (feature-major double[]).
+ * Scoring is one feature lookup per unique token and an add over the categories' vector.
+ */
+public class CompiledNaiveBayesModel {
+
+    private final String[] categories; // category ID -> name (sorted)
+    private final double[] logPriors; // log( P(c) ) of each category
+    private final Map<String, Integer> featureIds; // feature -> feature ID
+    private final double[] logLikelihoods; // log( P(x|c) ), numFeatures * numCategories
+
+    private CompiledNaiveBayesModel(String[] categories, double[] logPriors, Map<String, Integer> featureIds,
+                                    double[] logLikelihoods) {
+        this.categories = categories;
+        this.logPriors = logPriors;
+        this.featureIds = featureIds;
+        this.logLikelihoods = logLikelihoods;
+    }
+
+    /**
+     * compiles the model (missing likelihoods of feature and category are set to 0, likelihoods of
+     * incrementally updated model are normalized here)
+     *
+     * @param model trained or loaded model
+     */
+    public static CompiledNaiveBayesModel compile(NaiveBayesModel model) {
+        String[] categories = model.logPriors.keySet().toArray(new String[0]);
+        Arrays.sort(categories);
+        int numCategories = categories.length;
+        double[] logPriors = new double[numCategories];
+        for (int c = 0; c < numCategories; c++)
+            logPriors[c] = model.logPriors.get(categories[c]);
+        Map<String, Integer> featureIds = new HashMap<>(2 * model.logLikelihoods.size());
+        double[] logNormalizers = new double[numCategories];
+        for (int c = 0; c < numCategories; c++)
+            logNormalizers[c] = model.logNormalizers.getOrDefault(categories[c], 0.0);
+        double[] logLikelihoods = new double[model.logLikelihoods.size() * numCategories];
+        for (Map.Entry<String, Map<String, Double>> entry : model.logLikelihoods.entrySet()) {
+            int offset = featureIds.size() * numCategories;
+            featureIds.put(entry.getKey(), featureIds.size());
+            for (int c = 0; c < numCategories; c++) {
+                Double logLikelihood = entry.getValue().get(categories[c]);
+                if (logLikelihood != null)
+                    logLikelihoods[offset + c] = logLikelihood;
+                logLikelihoods[offset + c] -= logNormalizers[c];
+            }
+        }
+        return new CompiledNaiveBayesModel(categories, logPriors, featureIds, logLikelihoods);
+    }
+
+    public int getNumCategories() {
+        return categories.length;
+    }
+
+    public int getNumFeatures() {
+        return featureIds.size();
+    }
+
+    public String getCategory(int id) {
+        return categories[id];
+    }
+
+    /**
+     * returns feature ID or -1 if the feature is unknown
+     *
+     * @param feature feature
+     */
+    public int getFeatureId(String feature) {
+        Integer id = featureIds.get(feature);
+        return (id == null) ? -1 : id;
+    }
+
+    /**
+     * log scores of the categories (indexed by category ID)
+     *
+     * @param tokens tokenized text
+     */
+    public double[] scores(List<String> tokens) {
+        double[] scores = logPriors.clone();
+        for (Map.Entry<String, Integer> tokenCount : new TextDoc(tokens).tokenCounts.entrySet()) {
+            int feature = getFeatureId(tokenCount.getKey());
+            if (feature >= 0)
+                add(scores, feature, tokenCount.getValue());
+        }
+        return scores;
+    }
+
+    /**
+     * log scores of the categories (indexed by category ID). Occurrences are counted by sorting the IDs,
+     * each unique token is looked up only once.
+     *
+     * @param tokenIds   token IDs of the text
+     * @param vocabulary vocabulary of token IDs
+     */
+    public double[] scores(int[] tokenIds, TVocabulary vocabulary) {
+        int[] ids = tokenIds.clone();
+        Arrays.sort(ids);
+        double[] scores = logPriors.clone();
+        int i = 0;
+        while (i < ids.length) {
+            int j = i + 1;
+            while ((j < ids.length) && (ids[j] == ids[i])) j++;
+            int feature = getFeatureId(vocabulary.getWord(ids[i]));
+            if (feature >= 0)
+                add(scores, feature, j - i);
+            i = j;
+        }
+        return scores;
+    }
+
+    /**
+     * converts scores to map: category -> score
+     *
+     * @param scores scores indexed by category ID
+     */
+    public Map<String, Double> toMap(double[] scores) {
+        Map<String, Double> map = new HashMap<>();
+        for (int c = 0; c < categories.length; c++)
+            map.put(categories[c], scores[c]);
+        return map;
+    }
+
+    /**
+     * adds occurrences * log likelihoods of the feature to the scores
+     */
+    private void add(double[] scores, int feature, int occurrences) {
+        int offset = feature * scores.length;
+        for (int c = 0; c < scores.length; c++)
+            scores[c] += occurrences * logLikelihoods[offset + c];
+    }
+
+}
@@ -34,4 +34,23 @@ public class FeatureStats {
         featureCategoryCount = new HashMap<>();
         categoryCounts = new HashMap<>();
     }
+
+    /**
+     * Adds counts of another stats (associative and commutative, stats of shards can be merged in any order).
+     * Maps of the other stats can be reused, it shouldn't be used after merging.
+     *
+     * @param other stats of another part of the dataset
+     */
+    public FeatureStats merge(FeatureStats other) {
+        n += other.n;
+        for (Map.Entry<String, Integer> entry : other.categoryCounts.entrySet())
+            categoryCounts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        for (Map.Entry<String, Map<String, Integer>> entry : other.featureCategoryCount.entrySet()) {
+            Map<String, Integer> counts = featureCategoryCount.putIfAbsent(entry.getKey(), entry.getValue());
+            if (counts != null)
+                for (Map.Entry<String, Integer> count : entry.getValue().entrySet())
+                    counts.merge(count.getKey(), count.getValue(), Integer::sum);
+        }
+        return this;
+    }
 }
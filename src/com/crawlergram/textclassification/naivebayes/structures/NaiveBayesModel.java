@@ -35,6 +35,12 @@ public class NaiveBayesModel {
      */
     public Map<String, Map<String, Double>> logLikelihoods = new HashMap<>();
 
+    /**
+     * log Laplace normalizers log( sum_x count(x,c) + d ) of incrementally updated model, logLikelihoods then
+     * contain only log( count(x,c) + 1 ), missing entries are log( 1 ) (empty - logLikelihoods are normalized)
+     */
+    public Map<String, Double> logNormalizers = new HashMap<>();
+
     public NaiveBayesModel() {
     }
 
@@ -44,6 +50,22 @@ public class NaiveBayesModel {
         c = stats.categoryCounts.size();
     }
 
+    /**
+     * log( P(x|c) ) of the feature and category (null if the feature is unknown)
+     *
+     * @param feature  feature
+     * @param category category
+     */
+    public Double logLikelihood(String feature, String category) {
+        Map<String, Double> likelihoods = logLikelihoods.get(feature);
+        if (likelihoods == null)
+            return null;
+        Double logLikelihood = likelihoods.get(category);
+        if (logNormalizers.isEmpty())
+            return logLikelihood;
+        return ((logLikelihood == null) ? 0.0 : logLikelihood) - logNormalizers.getOrDefault(category, 0.0);
+    }
+
     public boolean isValid() {
         return ((n > 0) && (c > 0) && (d > 0) && !logPriors.isEmpty() && !logLikelihoods.isEmpty());
     }
@@ -8,6 +8,7 @@
 package com.crawlergram.topicmodeling;
 
 import com.crawlergram.db.DBStorageReduced;
+import com.crawlergram.db.ResultsWriter;
 import com.crawlergram.db.mongo.MongoDBStorageReduced;
 import com.crawlergram.preprocessing.PreprocessingMain;
 import com.crawlergram.preprocessing.liga.LIGA;
@@ -18,16 +19,29 @@ import com.crawlergram.structures.results.TMResults;
 import com.crawlergram.topicmodeling.models.ModelDMM;
 import com.crawlergram.topicmodeling.models.ModelLDA;
 import com.crawlergram.topicmodeling.models.TopicModel;
+import com.crawlergram.structures.TVocabulary;
 import org.apache.tika.langdetect.OptimaizeLangDetector;
 import org.apache.tika.language.detect.LanguageDetector;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class TopicModelingMain {
 
     public static Map<Integer, List<TMResults>> topicModelingLoop(TLoader tLoader, List<TopicModel> topicModels){
+        return topicModelingLoop(tLoader, topicModels, (ResultsWriter) null);
+    }
+
+    /**
+     * runs all the models for all the dialogs one by one, results of each dialog are written in background
+     *
+     * @param writer results writer (null - results are not written)
+     */
+    public static Map<Integer, List<TMResults>> topicModelingLoop(TLoader tLoader, List<TopicModel> topicModels,
+                                                                 ResultsWriter writer){
         System.out.println("Topic Modeling");
         HashMap<Integer, List<TMResults>> res = new HashMap<>();
         while (tLoader.hasNext()){
@@ -47,7 +61,55 @@ public class TopicModelingMain {
                 old.addAll(topicModeling.getResults());
                 res.put(current.getId(), old);
             }
+            if (writer != null)
+                writer.writeTopics(current, new ArrayList<>(res.get(current.getId())));
+        }
+        return res;
+    }
+
+    /**
+     * runs all the models for all the dialogs concurrently (largest corpora first)
+     *
+     * @param cpuBudget max number of CPUs used by topic modeling
+     */
+    public static Map<Integer, List<TMResults>> topicModelingLoop(TLoader tLoader, List<TopicModel> topicModels,
+                                                                 int cpuBudget){
+        return topicModelingLoop(tLoader, topicModels, cpuBudget, null);
+    }
+
+    /**
+     * runs all the models for all the dialogs concurrently (largest corpora first),
+     * results of each dialog are written in background as soon as they are collected
+     *
+     * @param cpuBudget max number of CPUs used by topic modeling
+     * @param writer    results writer (null - results are not written)
+     */
+    public static Map<Integer, List<TMResults>> topicModelingLoop(TLoader tLoader, List<TopicModel> topicModels,
+                                                                 int cpuBudget, ResultsWriter writer){
+        System.out.println("Topic Modeling (" + cpuBudget + " CPUs)");
+        List<TDialog> dialogs = new ArrayList<>();
+        while (tLoader.hasNext()){
+            dialogs.add(tLoader.next());
+        }
+        TopicModelingScheduler scheduler = new TopicModelingScheduler.TopicModelingSchedulerBuilder()
+                .setCpuBudget(cpuBudget).build();
+        List<List<CompletableFuture<TMResults>>> futures = scheduler.submitAll(dialogs, topicModels);
+        HashMap<Integer, List<TMResults>> res = new HashMap<>();
+        for (int i = 0; i < dialogs.size(); i++){
+            TDialog current = dialogs.get(i);
+            List<TMResults> results = res.computeIfAbsent(current.getId(), k -> new ArrayList<>());
+            for (CompletableFuture<TMResults> future : futures.get(i)){
+                try {
+                    results.add(future.join());
+                } catch (CompletionException e) {
+                    System.err.println("TOPIC MODELING ERROR " + current.getId() + " " + current.getUsername() + " "
+                            + e.getCause());
+                }
+            }
+            if (writer != null)
+                writer.writeTopics(current, new ArrayList<>(results));
         }
+        scheduler.shutdown();
         return res;
     }
 
@@ -60,7 +122,7 @@ public class TopicModelingMain {
 
         // language identification model (loaded only once)
         String ligaModelPath = "res" + File.separator + "liga" + File.separator + "model_n3.liga";
-        LIGA ligaModel = new LIGA.LIGABuilder(0.5).setLogLIGA(true).setMaxSearchDepth(1000).build();
+        LIGA ligaModel = new LIGA.LIGABuilder(0.5).setLogLIGA(true).build();
         ligaModel.loadModel(ligaModelPath);
 
         // optional language detection using Apache Tika
@@ -75,10 +137,19 @@ public class TopicModelingMain {
         // loads dialogs
         TLoader tLoader = new TLoader.TLoaderBuilder(dbStorage).setDateFrom(0).setDateTo(0).build();
 
+        // vocabulary of token IDs (shared by all dialogs)
+        TVocabulary vocabulary = new TVocabulary();
+
+        // cache of language identification results (shared by all dialogs)
+        LanguageCache languageCache = new LanguageCache.LanguageCacheBuilder().setMaxEntries(100000)
+                .setMaxBytes(64L * 1024 * 1024).build();
+
         List<PreprocessorModel> preprocessors = new ArrayList<>();
         // preprocessors.add(new MessageMerger.MessageMergerBuilder().build());
-        preprocessors.add(new Tokenizer.TokenizerBuilder(true).build());
-        preprocessors.add(new LanguageIdentificator.LanguageIdentificatorBuilder(tikaModel).build());
+        preprocessors.add(new Tokenizer.TokenizerBuilder(true).setSinglePass(true).setVocabulary(vocabulary).build());
+        LanguageIdentificator languageIdentificator = new LanguageIdentificator.LanguageIdentificatorBuilder(tikaModel)
+                .setCache(languageCache).build();
+        preprocessors.add(languageIdentificator);
         preprocessors.add(new StopwordsRemover.StopwordsRemoverBuilder(stopwords).build());
         preprocessors.add(new StemmerGRAS.StemmerGRASBuilder().build());
 
@@ -90,9 +161,14 @@ public class TopicModelingMain {
         topicModels.add(new ModelDMM.ModelDMMBuilder(10, 10).setIterations(100).build());
         topicModels.add(new ModelLDA.ModelLDABuilder(10, 10).setIterations(100).build());
 
-        Map<Integer, List<TMResults>> results = topicModelingLoop(tLoader, topicModels);
+        // results are written to TOPICS<dialog id> collections
+        ResultsWriter resultsWriter = new ResultsWriter.ResultsWriterBuilder(dbStorage).build();
 
+        Map<Integer, List<TMResults>> results = topicModelingLoop(tLoader, topicModels,
+                Runtime.getRuntime().availableProcessors(), resultsWriter);
 
+        resultsWriter.close();
+        languageIdentificator.shutdown();
 
         System.exit(0);
 
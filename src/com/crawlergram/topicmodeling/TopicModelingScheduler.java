@@ -0,0 +1,188 @@
+/*
+ * Title: TopicModelingScheduler.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicmodeling;
+
+import com.crawlergram.structures.TMessage;
+import com.crawlergram.structures.dialog.TDialog;
+import com.crawlergram.structures.results.TMResults;
+import com.crawlergram.topicmodeling.models.TopicModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs (dialog, model) topic modeling jobs concurrently in a work-stealing pool.
+ * Waiting jobs are ordered by corpus size (largest first), so long fits don't stall the end of the run.
+ * The number of busy CPUs is limited by the budget: a job takes as many CPUs, as its model uses threads.
+ * Models are shared between jobs, their run() must not change their state.
+ */
+public class TopicModelingScheduler {
+
+    private int cpuBudget; // max number of CPUs used by all jobs
+    private ForkJoinPool pool;
+    private Semaphore cpus; // free CPUs of the budget
+    private PriorityBlockingQueue<Job> queue; // waiting jobs
+    private AtomicLong sequence = new AtomicLong(); // submission order (ties of corpus size)
+
+    public int getCpuBudget() {
+        return cpuBudget;
+    }
+
+    /**
+     * schedules one job
+     *
+     * @param dialog dialog with preprocessed messages
+     * @param model  topic model
+     */
+    public CompletableFuture<TMResults> submit(TDialog dialog, TopicModel model) {
+        Job job = new Job(dialog, model, corpusSize(dialog));
+        queue.add(job);
+        pool.execute(this::runNext);
+        return job.future;
+    }
+
+    /**
+     * schedules all the models for each dialog. All jobs are queued before the first one starts,
+     * so the largest corpora go first. Returns futures in order of dialogs, for each dialog - in order of models.
+     *
+     * @param dialogs dialogs with preprocessed messages
+     * @param models  topic models
+     */
+    public List<List<CompletableFuture<TMResults>>> submitAll(List<TDialog> dialogs, List<TopicModel> models) {
+        List<List<CompletableFuture<TMResults>>> futures = new ArrayList<>(dialogs.size());
+        int jobs = 0;
+        for (TDialog dialog : dialogs) {
+            long size = corpusSize(dialog);
+            List<CompletableFuture<TMResults>> dialogFutures = new ArrayList<>(models.size());
+            for (TopicModel model : models) {
+                Job job = new Job(dialog, model, size);
+                queue.add(job);
+                dialogFutures.add(job.future);
+                jobs++;
+            }
+            futures.add(dialogFutures);
+        }
+        for (int i = 0; i < jobs; i++)
+            pool.execute(this::runNext);
+        return futures;
+    }
+
+    /**
+     * takes the largest waiting job and runs it, when its CPUs are free
+     */
+    private void runNext() {
+        Job job = queue.poll();
+        if (job == null) return;
+        int jobCpus = Math.max(1, Math.min(job.model.getThreads(), cpuBudget));
+        try {
+            cpus.acquire(jobCpus);
+        } catch (InterruptedException e) {
+            job.future.completeExceptionally(e);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            job.future.complete(job.model.run(job.dialog));
+        } catch (Throwable e) {
+            // reported by the caller, which joins the future
+            job.future.completeExceptionally(e);
+        } finally {
+            cpus.release(jobCpus);
+        }
+    }
+
+    /**
+     * waits for the running jobs and stops the pool
+     */
+    public void shutdown() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * number of words in dialog's messages (length of texts, if messages are not tokenized)
+     */
+    private static long corpusSize(TDialog dialog) {
+        long size = 0;
+        if (dialog.getMessages() == null) return size;
+        for (TMessage msg : dialog.getMessages()) {
+            if (msg.getTokenIds() != null) {
+                size += msg.getTokenIds().length;
+            } else if (msg.getTokens() != null) {
+                size += msg.getTokens().size();
+            } else if (msg.getText() != null) {
+                size += msg.getText().length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * (dialog, model) pair, waiting for execution
+     */
+    private class Job implements Comparable<Job> {
+
+        private TDialog dialog;
+        private TopicModel model;
+        private long size; // corpus size
+        private long order; // submission order
+        private CompletableFuture<TMResults> future = new CompletableFuture<>();
+
+        Job(TDialog dialog, TopicModel model, long size) {
+            this.dialog = dialog;
+            this.model = model;
+            this.size = size;
+            this.order = sequence.getAndIncrement();
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int c = Long.compare(other.size, size);
+            return (c != 0) ? c : Long.compare(order, other.order);
+        }
+    }
+
+    public TopicModelingScheduler(TopicModelingSchedulerBuilder builder) {
+        this.cpuBudget = builder.cpuBudget;
+        this.pool = new ForkJoinPool(cpuBudget);
+        this.cpus = new Semaphore(cpuBudget, true);
+        this.queue = new PriorityBlockingQueue<>();
+    }
+
+    public static class TopicModelingSchedulerBuilder {
+
+        private int cpuBudget = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * @param cpuBudget max number of CPUs, used by all running jobs together
+         */
+        public TopicModelingSchedulerBuilder setCpuBudget(int cpuBudget) {
+            this.cpuBudget = Math.max(1, cpuBudget);
+            return this;
+        }
+
+        public TopicModelingSchedulerBuilder() {}
+
+        public TopicModelingScheduler build() {
+            return new TopicModelingScheduler(this);
+        }
+
+    }
+
+}
@@ -1,8 +1,15 @@
 package com.crawlergram.topicmodeling.ldadmm.models;
 
 import com.crawlergram.structures.TMessage;
+import com.crawlergram.structures.TVocabulary;
+import com.crawlergram.structures.TopK;
+import com.crawlergram.topicmodeling.ldadmm.utility.Corpus;
 import com.crawlergram.topicmodeling.ldadmm.utility.FuncUtils;
+import com.crawlergram.topicmodeling.ldadmm.utility.RandomSource;
 import com.crawlergram.structures.message_old.TEMessage;
+import com.crawlergram.structures.results.DoubleMatrix;
+import com.crawlergram.structures.results.IntMatrix;
+import com.crawlergram.structures.results.RaggedIntMatrix;
 import com.crawlergram.structures.results.TMResults;
 import com.crawlergram.structures.results.TMResultsParameters;
 
@@ -38,6 +45,7 @@ public class GSDMM {
     public List<Integer> topicAssignments; // Topics assignments for documents
     public int numDocuments; // Number of documents in the corpus
     public int numWordsInCorpus; // Number of words in the corpus
+    public List<Integer> messageIds; // ID of the source message of each document
 
     public TreeMap<String, Integer> word2IdVocabulary; // Vocabulary to get ID
     // given a word
@@ -56,11 +64,24 @@ public class GSDMM {
     // Double array used to sample a topic
     public double[] multiPros;
 
+    private RandomSource random; // source of random numbers of this instance
+
     // Given a document, number of times its i^{th} word appearing from
     // the first index to the i^{th}-index in the document
     // Example: given a document of "a a b a b c d c". We have: 1 2 1 3 2 1 1 2
     public List<List<Integer>> occurenceToIndexCount;
 
+    // bounds of partial products in log-space scoring
+    private static final double CHUNK_MAX = 1e200;
+    private static final double CHUNK_MIN = 1e-200;
+
+    private boolean singlePrecision = false; // theta in floats
+
+    private int[][] docWords; // word IDs of each document
+    private int[][] docOccurrences; // occurrence-to-index counts of each document's words
+    // ln(Gamma(sumTopicWordCount[t] + betaSum)) of each topic, updated when topic's counts change
+    private double[] logGammaDenominators;
+
     /**
      * DMM with random topic initialization. Data is read from list of TEMessage instances.
      *
@@ -73,6 +94,42 @@ public class GSDMM {
      */
     public GSDMM(List<TMessage> msgs, int inNumTopics,
                  double inAlpha, double inBeta, int inNumIterations, int inTopWords) {
+        this(msgs, null, inNumTopics, inAlpha, inBeta, inNumIterations, inTopWords);
+    }
+
+    /**
+     * DMM with random topic initialization. Data is read from token IDs of messages.
+     *
+     * @param msgs            messages (with stemmed text)
+     * @param vocabulary      vocabulary of messages' token IDs (null - clear text of messages is used)
+     * @param inNumTopics     number of topics
+     * @param inAlpha         alpha parameter, for short text - 0.1, for long text - 0.01
+     * @param inBeta          beta parameter, 0.1 both for short and long texts
+     * @param inNumIterations number of iterations
+     * @param inTopWords      top topic words for output
+     */
+    public GSDMM(List<TMessage> msgs, TVocabulary vocabulary, int inNumTopics,
+                 double inAlpha, double inBeta, int inNumIterations, int inTopWords) {
+        this(msgs, vocabulary, inNumTopics, inAlpha, inBeta, inNumIterations, inTopWords, RandomSource.create());
+    }
+
+    /**
+     * DMM with random topic initialization. Data is read from token IDs of messages.
+     * Runs with the same seed of random source are reproducible.
+     *
+     * @param msgs            messages (with stemmed text)
+     * @param vocabulary      vocabulary of messages' token IDs (null - clear text of messages is used)
+     * @param inNumTopics     number of topics
+     * @param inAlpha         alpha parameter, for short text - 0.1, for long text - 0.01
+     * @param inBeta          beta parameter, 0.1 both for short and long texts
+     * @param inNumIterations number of iterations
+     * @param inTopWords      top topic words for output
+     * @param inRandom        source of random numbers (used only by this instance)
+     */
+    public GSDMM(List<TMessage> msgs, TVocabulary vocabulary, int inNumTopics,
+                 double inAlpha, double inBeta, int inNumIterations, int inTopWords, RandomSource inRandom) {
+
+        random = inRandom;
         alpha = inAlpha;
         beta = inBeta;
         numTopics = inNumTopics;
@@ -81,48 +138,14 @@ public class GSDMM {
 
         if (debug) System.out.println("DMM: reading topic modeling corpus from messages");
 
-        word2IdVocabulary = new TreeMap<>();
-        id2WordVocabulary = new TreeMap<>();
-        corpus = new ArrayList<>();
-        occurenceToIndexCount = new ArrayList<>();
-        numDocuments = 0;
-        numWordsInCorpus = 0;
-
-        int indexWord = -1;
-
-        for (TMessage msg : msgs) {
-            String doc = msg.getClearText();
-            if (doc.trim().length() == 0) continue;
-
-            String[] words = doc.trim().split("\\s+");
-            List<Integer> document = new ArrayList<>();
-
-            List<Integer> wordOccurrenceToIndexInDoc = new ArrayList<>();
-            HashMap<String, Integer> wordOccurrenceToIndexInDocCount = new HashMap<>();
-
-            for (String word : words) {
-                if (word2IdVocabulary.containsKey(word)) {
-                    document.add(word2IdVocabulary.get(word));
-                } else {
-                    indexWord += 1;
-                    word2IdVocabulary.put(word, indexWord);
-                    id2WordVocabulary.put(indexWord, word);
-                    document.add(indexWord);
-                }
-
-                int times = 0;
-                if (wordOccurrenceToIndexInDocCount.containsKey(word)) {
-                    times = wordOccurrenceToIndexInDocCount.get(word);
-                }
-                times += 1;
-                wordOccurrenceToIndexInDocCount.put(word, times);
-                wordOccurrenceToIndexInDoc.add(times);
-            }
-            numDocuments++;
-            numWordsInCorpus += document.size();
-            corpus.add(document);
-            occurenceToIndexCount.add(wordOccurrenceToIndexInDoc);
-        }
+        Corpus tmCorpus = new Corpus(msgs, vocabulary, true);
+        word2IdVocabulary = tmCorpus.word2IdVocabulary;
+        id2WordVocabulary = tmCorpus.id2WordVocabulary;
+        corpus = tmCorpus.documents;
+        occurenceToIndexCount = tmCorpus.occurenceToIndexCount;
+        numDocuments = tmCorpus.getNumDocuments();
+        numWordsInCorpus = tmCorpus.numWordsInCorpus;
+        messageIds = tmCorpus.messageIds;
 
         vocabularySize = word2IdVocabulary.size();
         docTopicCount = new int[numTopics];
@@ -137,6 +160,13 @@ public class GSDMM {
         alphaSum = numTopics * alpha;
         betaSum = vocabularySize * beta;
 
+        docWords = new int[numDocuments][];
+        docOccurrences = new int[numDocuments][];
+        for (int i = 0; i < numDocuments; i++) {
+            docWords[i] = toArray(corpus.get(i));
+            docOccurrences[i] = toArray(occurenceToIndexCount.get(i));
+        }
+
         initialize();
 
         if (debug) System.out.println("Corpus size: " + numDocuments + " docs, "
@@ -156,15 +186,18 @@ public class GSDMM {
         if (debug) System.out.println("Randomly initializing topic assignments ...");
         topicAssignments = new ArrayList<>();
         for (int i = 0; i < numDocuments; i++) {
-            int topic = FuncUtils.nextDiscrete(multiPros); // Sample a topic
+            int topic = FuncUtils.nextDiscrete(multiPros, random); // Sample a topic
             docTopicCount[topic] += 1;
-            int docSize = corpus.get(i).size();
-            for (int j = 0; j < docSize; j++) {
-                topicWordCount[topic][corpus.get(i).get(j)] += 1;
+            for (int word : docWords[i]) {
+                topicWordCount[topic][word] += 1;
                 sumTopicWordCount[topic] += 1;
             }
             topicAssignments.add(topic);
         }
+        logGammaDenominators = new double[numTopics];
+        for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+            logGammaDenominators[tIndex] = FuncUtils.logGamma(sumTopicWordCount[tIndex] + betaSum);
+        }
     }
 
     /**
@@ -183,60 +216,85 @@ public class GSDMM {
         return write();
     }
 
+    /**
+     * Samples topics in log-space (products of docSize fractions underflow for long documents):
+     * ln p(t) = ln(docTopicCount[t] + alpha) + sum_i ln(topicWordCount[t][w_i] + beta + occ_i - 1)
+     * - sum_i ln(sumTopicWordCount[t] + betaSum + i),
+     * the last sum is ln(Gamma(sumTopicWordCount[t] + betaSum + docSize)) - ln(Gamma(sumTopicWordCount[t] + betaSum)).
+     * All empty topics have the same score, it is calculated once per document.
+     */
     private void sampleInSingleIteration() {
         for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
             int topic = topicAssignments.get(dIndex);
-            List<Integer> document = corpus.get(dIndex);
-            int docSize = document.size();
+            int[] document = docWords[dIndex];
+            int[] occurrences = docOccurrences[dIndex];
+            int docSize = document.length;
 
             // Decrease counts
             docTopicCount[topic] -= 1;
-            for (Integer aDocument1 : document) {
-                int word = aDocument1;
+            for (int word : document) {
                 topicWordCount[topic][word] -= 1;
-                sumTopicWordCount[topic] -= 1;
             }
+            sumTopicWordCount[topic] -= docSize;
+            logGammaDenominators[topic] = FuncUtils.logGamma(sumTopicWordCount[topic] + betaSum);
 
             // Sample a topic
+            double emptyTopicScore = Double.NaN; // score of empty topics (calculated lazily)
             for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-                multiPros[tIndex] = (docTopicCount[tIndex] + alpha);
-                for (int wIndex = 0; wIndex < docSize; wIndex++) {
-                    int word = document.get(wIndex);
-                    multiPros[tIndex] *= (topicWordCount[tIndex][word] + beta
-                            + occurenceToIndexCount.get(dIndex).get(wIndex) - 1)
-                            / (sumTopicWordCount[tIndex] + betaSum + wIndex);
+                if (sumTopicWordCount[tIndex] == 0) {
+                    if (Double.isNaN(emptyTopicScore)) {
+                        emptyTopicScore = topicScore(tIndex, document, occurrences);
+                    }
+                    multiPros[tIndex] = emptyTopicScore;
+                } else {
+                    multiPros[tIndex] = topicScore(tIndex, document, occurrences);
                 }
             }
-            topic = FuncUtils.nextDiscrete(multiPros);
+            topic = FuncUtils.nextDiscreteLog(multiPros, random);
 
             // Increase counts
             docTopicCount[topic] += 1;
-            for (Integer aDocument : document) {
-                int word = aDocument;
+            for (int word : document) {
                 topicWordCount[topic][word] += 1;
-                sumTopicWordCount[topic] += 1;
             }
+            sumTopicWordCount[topic] += docSize;
+            logGammaDenominators[topic] = FuncUtils.logGamma(sumTopicWordCount[topic] + betaSum);
+
             // Update topic assignments
             topicAssignments.set(dIndex, topic);
         }
     }
 
-    private TMResultsParameters writeParameters() {
-        return new TMResultsParameters("DMM", numTopics, alpha, beta, numIterations, topWords);
-    }
-
-    private List<List<Integer>> writeTopicAssignments() {
-        List<List<Integer>> ta = new ArrayList<>();
-        for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-            List<Integer> t = new ArrayList<>();
-            int docSize = corpus.get(dIndex).size();
-            int topic = topicAssignments.get(dIndex);
-            for (int wIndex = 0; wIndex < docSize; wIndex++) {
-                t.add(topic);
+    /**
+     * log-score of the topic for the document (the document is excluded from counts)
+     */
+    private double topicScore(int tIndex, int[] document, int[] occurrences) {
+        int[] wordCount = topicWordCount[tIndex];
+        double score = Math.log(docTopicCount[tIndex] + alpha)
+                - (FuncUtils.logGamma(sumTopicWordCount[tIndex] + betaSum + document.length)
+                - logGammaDenominators[tIndex]);
+        double betaShift = beta - 1;
+        // terms are multiplied in chunks, logarithm is taken before the product can overflow or underflow
+        double product = 1.0;
+        for (int wIndex = 0; wIndex < document.length; wIndex++) {
+            product *= wordCount[document[wIndex]] + betaShift + occurrences[wIndex];
+            if ((product > CHUNK_MAX) || (product < CHUNK_MIN)) {
+                score += Math.log(product);
+                product = 1.0;
             }
-            ta.add(t);
         }
-        return ta;
+        return score + Math.log(product);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    private TMResultsParameters writeParameters() {
+        return new TMResultsParameters("DMM", numTopics, alpha, beta, numIterations, topWords);
     }
 
     private List<Map<String, Double>> writeTopTopicalWords() {
@@ -247,92 +305,87 @@ public class GSDMM {
 
             Map<String, Double> topicTopWords = new HashMap<>();
 
-            Map<Integer, Integer> wordCount = new TreeMap<>();
-            for (int wIndex = 0; wIndex < vocabularySize; wIndex++) {
-                wordCount.put(wIndex, topicWordCount[tIndex][wIndex]);
-            }
-            wordCount = FuncUtils.sortByValueDescending(wordCount);
-
-            Set<Integer> mostLikelyWords = wordCount.keySet();
-            int count = 0;
-            for (Integer index : mostLikelyWords) {
-                if (count < topWords) {
-                    double pro = (topicWordCount[tIndex][index] + beta)
-                            / (sumTopicWordCount[tIndex] + betaSum);
-                    pro = Math.round(pro * 1000000.0) / 1000000.0;
-                    topicTopWords.put(id2WordVocabulary.get(index), pro);
-                    count += 1;
-                } else {
-                    break;
-                }
+            // by count descending, ties - by word ID
+            for (int index : TopK.topK(topicWordCount[tIndex], topWords)) {
+                double pro = (topicWordCount[tIndex][index] + beta)
+                        / (sumTopicWordCount[tIndex] + betaSum);
+                pro = Math.round(pro * 1000000.0) / 1000000.0;
+                topicTopWords.put(id2WordVocabulary.get(index), pro);
             }
             topWordsList.add(topicTopWords);
         }
         return topWordsList;
     }
 
-    private List<List<Double>> writeTopicWordPros() {
-        List<List<Double>> twp = new ArrayList<>();
-        for (int i = 0; i < numTopics; i++) {
-            List<Double> wp = new ArrayList<>();
-            for (int j = 0; j < vocabularySize; j++) {
-                double pro = (topicWordCount[i][j] + beta)
-                        / (sumTopicWordCount[i] + betaSum);
-                wp.add(pro);
-            }
-            twp.add(wp);
-        }
-        return twp;
-    }
-
-    private List<List<Integer>> writeTopicWordCount() {
-        List<List<Integer>> twc = new ArrayList<>();
-        for (int i = 0; i < numTopics; i++) {
-            List<Integer> wc = new ArrayList<>();
-            for (int j = 0; j < vocabularySize; j++) {
-                wc.add(topicWordCount[i][j]);
-            }
-            twc.add(wc);
-        }
-        return twc;
-    }
-
-    private List<List<Double>> writeDocTopicPros() {
-        List<List<Double>> dtp = new ArrayList<>();
+    /**
+     * theta (numDocuments * numTopics, row-major), in double or single precision
+     */
+    private DoubleMatrix writeDocTopicPros() {
+        double[] dtp = singlePrecision ? null : new double[numDocuments * numTopics];
+        float[] dtpFloat = singlePrecision ? new float[numDocuments * numTopics] : null;
         for (int i = 0; i < numDocuments; i++) {
-            List<Double> tp = new ArrayList<>();
-            int docSize = corpus.get(i).size();
-            double sum = 0.0;
+            int[] document = docWords[i];
+            // log-space, normalized by the max value
+            double max = Double.NEGATIVE_INFINITY;
             for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-                multiPros[tIndex] = (docTopicCount[tIndex] + alpha);
-                for (int wIndex = 0; wIndex < docSize; wIndex++) {
-                    int word = corpus.get(i).get(wIndex);
-                    multiPros[tIndex] *= (topicWordCount[tIndex][word] + beta)
-                            / (sumTopicWordCount[tIndex] + betaSum);
+                double logPro = Math.log(docTopicCount[tIndex] + alpha)
+                        - document.length * Math.log(sumTopicWordCount[tIndex] + betaSum);
+                double product = 1.0;
+                for (int word : document) {
+                    product *= topicWordCount[tIndex][word] + beta;
+                    if ((product > CHUNK_MAX) || (product < CHUNK_MIN)) {
+                        logPro += Math.log(product);
+                        product = 1.0;
+                    }
                 }
+                logPro += Math.log(product);
+                multiPros[tIndex] = logPro;
+                max = Math.max(max, logPro);
+            }
+            double sum = 0.0;
+            for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+                multiPros[tIndex] = Math.exp(multiPros[tIndex] - max);
                 sum += multiPros[tIndex];
             }
             for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-                tp.add(multiPros[tIndex] / sum);
+                if (singlePrecision) {
+                    dtpFloat[i * numTopics + tIndex] = (float) (multiPros[tIndex] / sum);
+                } else {
+                    dtp[i * numTopics + tIndex] = multiPros[tIndex] / sum;
+                }
             }
-            dtp.add(tp);
         }
-        return dtp;
+        return singlePrecision ? DoubleMatrix.dense(dtpFloat, numDocuments, numTopics)
+                : DoubleMatrix.dense(dtp, numDocuments, numTopics);
     }
 
-    private List<List<Integer>> writeDocTopicCount() {
-        List<List<Integer>> dtc = new ArrayList<>();
-        for (int i = 0; i < docTopicCount.length; i++) {
-            List<Integer> tc = new ArrayList<>();
-            tc.add(docTopicCount[i]);
-            dtc.add(tc);
+    private TMResults write() {
+        // all words of a document have the document's topic
+        int[] assignments = new int[numWordsInCorpus];
+        int[] docStarts = new int[numDocuments + 1];
+        for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
+            docStarts[dIndex + 1] = docStarts[dIndex] + docWords[dIndex].length;
+            Arrays.fill(assignments, docStarts[dIndex], docStarts[dIndex + 1], topicAssignments.get(dIndex));
         }
-        return dtc;
+        IntMatrix topicWordMatrix = new IntMatrix(numTopics, vocabularySize);
+        for (int i = 0; i < numTopics; i++)
+            System.arraycopy(topicWordCount[i], 0, topicWordMatrix.getValues(), i * vocabularySize, vocabularySize);
+        // number of documents of each topic (numTopics * 1)
+        IntMatrix docTopicMatrix = new IntMatrix(docTopicCount.clone(), numTopics, 1);
+        // phi is calculated from counts on demand
+        TMResults res = new TMResults(writeParameters(), new RaggedIntMatrix(assignments, docStarts),
+                writeTopTopicalWords(),
+                DoubleMatrix.smoothed(topicWordMatrix, sumTopicWordCount, beta, betaSum), topicWordMatrix,
+                writeDocTopicPros(), docTopicMatrix);
+        res.setMessageIds(messageIds);
+        return res;
     }
 
-    private TMResults write() {
-        return new TMResults(writeParameters(), writeTopicAssignments(), writeTopTopicalWords(),
-                writeTopicWordPros(), writeTopicWordCount(), writeDocTopicPros(), writeDocTopicCount());
+    /**
+     * @param singlePrecision theta is stored in floats (half of memory)
+     */
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
     }
 
 }
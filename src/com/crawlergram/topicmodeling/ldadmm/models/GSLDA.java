@@ -7,8 +7,15 @@
 package com.crawlergram.topicmodeling.ldadmm.models;
 
 import com.crawlergram.structures.TMessage;
+import com.crawlergram.structures.TVocabulary;
+import com.crawlergram.structures.TopK;
+import com.crawlergram.topicmodeling.ldadmm.utility.Corpus;
 import com.crawlergram.topicmodeling.ldadmm.utility.FuncUtils;
+import com.crawlergram.topicmodeling.ldadmm.utility.RandomSource;
 import com.crawlergram.structures.message_old.TEMessage;
+import com.crawlergram.structures.results.DoubleMatrix;
+import com.crawlergram.structures.results.IntMatrix;
+import com.crawlergram.structures.results.RaggedIntMatrix;
 import com.crawlergram.structures.results.TMResults;
 import com.crawlergram.structures.results.TMResultsParameters;
 
@@ -44,6 +51,7 @@ public class GSLDA {
     // in the corpus
     public int numDocuments; // Number of documents in the corpus
     public int numWordsInCorpus; // Number of words in the corpus
+    public List<Integer> messageIds; // ID of the source message of each document
 
     public TreeMap<String, Integer> word2IdVocabulary; // Vocabulary to get ID
     // given a word
@@ -65,6 +73,8 @@ public class GSLDA {
     // Double array used to sample a topic
     public double[] multiPros;
 
+    private RandomSource random; // source of random numbers of this instance
+
     /**
      * LDA with random topic initialization. Data is read from list of TEMessage instances.
      *
@@ -77,7 +87,42 @@ public class GSLDA {
      */
     public GSLDA(List<TMessage> msgs, int inNumTopics,
                  double inAlpha, double inBeta, int inNumIterations, int inTopWords) {
+        this(msgs, null, inNumTopics, inAlpha, inBeta, inNumIterations, inTopWords);
+    }
+
+    /**
+     * LDA with random topic initialization. Data is read from token IDs of messages.
+     *
+     * @param msgs            messages (with stemmed text)
+     * @param vocabulary      vocabulary of messages' token IDs (null - clear text of messages is used)
+     * @param inNumTopics     number of topics
+     * @param inAlpha         alpha parameter, for short text - 0.1, for long text - 0.01
+     * @param inBeta          beta parameter, 0.1 both for short and long texts
+     * @param inNumIterations number of iterations
+     * @param inTopWords      top topic words for output
+     */
+    public GSLDA(List<TMessage> msgs, TVocabulary vocabulary, int inNumTopics,
+                 double inAlpha, double inBeta, int inNumIterations, int inTopWords) {
+        this(msgs, vocabulary, inNumTopics, inAlpha, inBeta, inNumIterations, inTopWords, RandomSource.create());
+    }
+
+    /**
+     * LDA with random topic initialization. Data is read from token IDs of messages.
+     * Runs with the same seed of random source are reproducible.
+     *
+     * @param msgs            messages (with stemmed text)
+     * @param vocabulary      vocabulary of messages' token IDs (null - clear text of messages is used)
+     * @param inNumTopics     number of topics
+     * @param inAlpha         alpha parameter, for short text - 0.1, for long text - 0.01
+     * @param inBeta          beta parameter, 0.1 both for short and long texts
+     * @param inNumIterations number of iterations
+     * @param inTopWords      top topic words for output
+     * @param inRandom        source of random numbers (used only by this instance)
+     */
+    public GSLDA(List<TMessage> msgs, TVocabulary vocabulary, int inNumTopics,
+                 double inAlpha, double inBeta, int inNumIterations, int inTopWords, RandomSource inRandom) {
 
+        random = inRandom;
         alpha = inAlpha;
         beta = inBeta;
         numTopics = inNumTopics;
@@ -86,36 +131,13 @@ public class GSLDA {
 
         if (debug) System.out.println("LDA: reading topic modeling corpus from messages");
 
-        word2IdVocabulary = new TreeMap<>();
-        id2WordVocabulary = new TreeMap<>();
-        corpus = new ArrayList<>();
-        numDocuments = 0;
-        numWordsInCorpus = 0;
-
-        int indexWord = -1;
-
-        for (TMessage msg : msgs) {
-            String doc = msg.getClearText();
-            if (doc.trim().length() == 0) continue;
-
-            String[] words = doc.trim().split("\\s+");
-            List<Integer> document = new ArrayList<Integer>();
-
-            for (String word : words) {
-                if (word2IdVocabulary.containsKey(word)) {
-                    document.add(word2IdVocabulary.get(word));
-                } else {
-                    indexWord += 1;
-                    word2IdVocabulary.put(word, indexWord);
-                    id2WordVocabulary.put(indexWord, word);
-                    document.add(indexWord);
-                }
-            }
-
-            numDocuments++;
-            numWordsInCorpus += document.size();
-            corpus.add(document);
-        }
+        Corpus tmCorpus = new Corpus(msgs, vocabulary, false);
+        word2IdVocabulary = tmCorpus.word2IdVocabulary;
+        id2WordVocabulary = tmCorpus.id2WordVocabulary;
+        corpus = tmCorpus.documents;
+        numDocuments = tmCorpus.getNumDocuments();
+        numWordsInCorpus = tmCorpus.numWordsInCorpus;
+        messageIds = tmCorpus.messageIds;
 
         vocabularySize = word2IdVocabulary.size(); // vocabularySize = indexWord
         docTopicCount = new int[numDocuments][numTopics];
@@ -153,7 +175,7 @@ public class GSLDA {
             List<Integer> topics = new ArrayList<>();
             int docSize = corpus.get(i).size();
             for (int j = 0; j < docSize; j++) {
-                int topic = FuncUtils.nextDiscrete(multiPros); // Sample a topic
+                int topic = FuncUtils.nextDiscrete(multiPros, random); // Sample a topic
                 // Increase counts
                 docTopicCount[i][topic] += 1;
                 topicWordCount[topic][corpus.get(i).get(j)] += 1;
@@ -205,7 +227,7 @@ public class GSLDA {
                     // * ((topicWordCount[tIndex][word] + beta) /
                     // (topicWordSum[tIndex] + betaSum));
                 }
-                topic = FuncUtils.nextDiscrete(multiPros);
+                topic = FuncUtils.nextDiscrete(multiPros, random);
 
                 // Increase counts
                 docTopicCount[dIndex][topic] += 1;
@@ -231,19 +253,6 @@ public class GSLDA {
         return corpus;
     }
 
-    private List<List<Integer>> writeTopicAssignments() {
-        List<List<Integer>> ta = new ArrayList<>();
-        for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-            List<Integer> t = new ArrayList<>();
-            int docSize = corpus.get(dIndex).size();
-            for (int wIndex = 0; wIndex < docSize; wIndex++) {
-                t.add(topicAssignments.get(dIndex).get(wIndex));
-            }
-            ta.add(t);
-        }
-        return ta;
-    }
-
     private List<Map<String, Double>> writeTopTopicalWords() {
 
         List<Map<String, Double>> topWordsList = new ArrayList<>();
@@ -252,85 +261,40 @@ public class GSLDA {
 
             Map<String, Double> topicTopWords = new HashMap<>();
 
-            Map<Integer, Integer> wordCount = new TreeMap<>();
-            for (int wIndex = 0; wIndex < vocabularySize; wIndex++) {
-                wordCount.put(wIndex, topicWordCount[tIndex][wIndex]);
-            }
-            wordCount = FuncUtils.sortByValueDescending(wordCount);
-
-            Set<Integer> mostLikelyWords = wordCount.keySet();
-            int count = 0;
-            for (Integer index : mostLikelyWords) {
-                if (count < topWords) {
-                    double pro = (topicWordCount[tIndex][index] + beta)
-                            / (sumTopicWordCount[tIndex] + betaSum);
-                    pro = Math.round(pro * 1000000.0) / 1000000.0;
-                    topicTopWords.put(id2WordVocabulary.get(index), pro);
-                    count += 1;
-                } else {
-                    break;
-                }
+            // by count descending, ties - by word ID
+            for (int index : TopK.topK(topicWordCount[tIndex], topWords)) {
+                double pro = (topicWordCount[tIndex][index] + beta)
+                        / (sumTopicWordCount[tIndex] + betaSum);
+                pro = Math.round(pro * 1000000.0) / 1000000.0;
+                topicTopWords.put(id2WordVocabulary.get(index), pro);
             }
             topWordsList.add(topicTopWords);
         }
         return topWordsList;
     }
 
-    private List<List<Double>> writeTopicWordPros() {
-        List<List<Double>> twp = new ArrayList<>();
-        for (int i = 0; i < numTopics; i++) {
-            List<Double> wp = new ArrayList<>();
-            for (int j = 0; j < vocabularySize; j++) {
-                double pro = (topicWordCount[i][j] + beta)
-                        / (sumTopicWordCount[i] + betaSum);
-                wp.add(pro);
-            }
-            twp.add(wp);
-        }
-        return twp;
-    }
-
-    private List<List<Integer>> writeTopicWordCount() {
-        List<List<Integer>> twc = new ArrayList<>();
-        for (int i = 0; i < numTopics; i++) {
-            List<Integer> wc = new ArrayList<>();
-            for (int j = 0; j < vocabularySize; j++) {
-                wc.add(topicWordCount[i][j]);
-            }
-            twc.add(wc);
-        }
-        return twc;
-    }
-
-    private List<List<Double>> writeDocTopicPros() {
-        List<List<Double>> dtp = new ArrayList<>();
-        for (int i = 0; i < numDocuments; i++) {
-            List<Double> tp = new ArrayList<>();
-            for (int j = 0; j < numTopics; j++) {
-                double pro = (docTopicCount[i][j] + alpha)
-                        / (sumDocTopicCount[i] + alphaSum);
-                tp.add(pro);
-            }
-            dtp.add(tp);
-        }
-        return dtp;
-    }
-
-    private List<List<Integer>> writeDocTopicCount() {
-        List<List<Integer>> dtc = new ArrayList<>();
-        for (int i = 0; i < numDocuments; i++) {
-            List<Integer> tc = new ArrayList<>();
-            for (int j = 0; j < numTopics; j++) {
-                tc.add(docTopicCount[i][j]);
-            }
-            dtc.add(tc);
-        }
-        return dtc;
-    }
-
     private TMResults write() {
-        return new TMResults(writeParameters(), writeTopicAssignments(), writeTopTopicalWords(),
-                writeTopicWordPros(), writeTopicWordCount(), writeDocTopicPros(), writeDocTopicCount());
+        int[] assignments = new int[numWordsInCorpus];
+        int[] docStarts = new int[numDocuments + 1];
+        for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
+            List<Integer> topics = topicAssignments.get(dIndex);
+            docStarts[dIndex + 1] = docStarts[dIndex] + topics.size();
+            for (int wIndex = 0; wIndex < topics.size(); wIndex++)
+                assignments[docStarts[dIndex] + wIndex] = topics.get(wIndex);
+        }
+        IntMatrix topicWordMatrix = new IntMatrix(numTopics, vocabularySize);
+        for (int i = 0; i < numTopics; i++)
+            System.arraycopy(topicWordCount[i], 0, topicWordMatrix.getValues(), i * vocabularySize, vocabularySize);
+        IntMatrix docTopicMatrix = new IntMatrix(numDocuments, numTopics);
+        for (int i = 0; i < numDocuments; i++)
+            System.arraycopy(docTopicCount[i], 0, docTopicMatrix.getValues(), i * numTopics, numTopics);
+        // phi and theta are calculated from counts on demand
+        TMResults res = new TMResults(writeParameters(), new RaggedIntMatrix(assignments, docStarts),
+                writeTopTopicalWords(),
+                DoubleMatrix.smoothed(topicWordMatrix, sumTopicWordCount, beta, betaSum), topicWordMatrix,
+                DoubleMatrix.smoothed(docTopicMatrix, sumDocTopicCount, alpha, alphaSum), docTopicMatrix);
+        res.setMessageIds(messageIds);
+        return res;
     }
 
 }
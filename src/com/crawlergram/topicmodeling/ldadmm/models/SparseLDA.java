@@ -0,0 +1,467 @@
+/*
+ * Title: SparseLDA.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicmodeling.ldadmm.models;
+
+import com.crawlergram.structures.TMessage;
+import com.crawlergram.structures.TVocabulary;
+import com.crawlergram.structures.TopK;
+import com.crawlergram.structures.results.DoubleMatrix;
+import com.crawlergram.structures.results.IntMatrix;
+import com.crawlergram.structures.results.RaggedIntMatrix;
+import com.crawlergram.structures.results.TMResults;
+import com.crawlergram.structures.results.TMResultsParameters;
+import com.crawlergram.topicmodeling.ldadmm.utility.Corpus;
+import com.crawlergram.topicmodeling.ldadmm.utility.RandomSource;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * LDA with collapsed Gibbs sampling (same model as GSLDA), sampled with the bucket decomposition of SparseLDA:
+ * <p>
+ * p(t) ~ alpha*beta/(n_t + betaSum) + n_dt*beta/(n_t + betaSum) + (n_dt + alpha)*n_wt/(n_t + betaSum)
+ * <p>
+ * The first bucket is cached for all topics, the second one iterates only topics of the document,
+ * the third one - only topics of the word, so per-token cost doesn't grow linearly with number of topics.
+ * <p>
+ * L. Yao, D. Mimno, A. McCallum. 2009. Efficient methods for topic model inference on streaming document collections.
+ * <p>
+ * Corpus and assignments are flat int arrays. Optional multi-threaded mode (AD-LDA, Newman et al. 2009):
+ * documents are split between threads, each thread samples with its own copy of word-topic counts,
+ * the count deltas are merged after each iteration.
+ */
+public class SparseLDA {
+
+    private final boolean debug = true; // debug
+
+    private double alpha; // Hyper-parameter alpha
+    private double beta; // Hyper-parameter beta
+    private int numTopics; // Number of topics
+    private int numIterations; // Number of Gibbs sampling iterations
+    private int topWords; // Number of most probable words for each topic
+    private int numThreads; // Number of sampling threads
+    private RandomSource random; // source of random numbers of this instance
+
+    private double alphaSum; // alpha * numTopics
+    private double betaSum; // beta * vocabularySize
+
+    private int numDocuments; // Number of documents in the corpus
+    private int numWordsInCorpus; // Number of words in the corpus
+    private List<Integer> messageIds; // ID of the source message of each document
+    private int vocabularySize; // The number of word types in the corpus
+    private TreeMap<Integer, String> id2WordVocabulary; // Vocabulary to get word given an ID
+
+    private int[] words; // word IDs of all documents (flat)
+    private int[] docStart; // start of each document in words (numDocuments + 1)
+    private int[] topicAssignments; // topic of each word in words
+
+    private int[] docTopicCount; // numDocuments * numTopics, document-major
+    private int[] wordTopicCount; // vocabularySize * numTopics, word-major (global counts)
+    private int[] sumTopicWordCount; // total number of words assigned to a topic (global counts)
+
+    /**
+     * LDA with random topic initialization. Data is read from token IDs of messages.
+     *
+     * @param msgs            messages (with stemmed text)
+     * @param vocabulary      vocabulary of messages' token IDs (null - clear text of messages is used)
+     * @param inNumTopics     number of topics
+     * @param inAlpha         alpha parameter, for short text - 0.1, for long text - 0.01
+     * @param inBeta          beta parameter, 0.1 both for short and long texts
+     * @param inNumIterations number of iterations
+     * @param inTopWords      top topic words for output
+     * @param inNumThreads    number of sampling threads (1 - sequential sampling)
+     */
+    public SparseLDA(List<TMessage> msgs, TVocabulary vocabulary, int inNumTopics,
+                     double inAlpha, double inBeta, int inNumIterations, int inTopWords, int inNumThreads) {
+        this(msgs, vocabulary, inNumTopics, inAlpha, inBeta, inNumIterations, inTopWords, inNumThreads,
+                RandomSource.create());
+    }
+
+    /**
+     * LDA with random topic initialization. Data is read from token IDs of messages.
+     * Runs with the same seed of random source (and the same number of threads) are reproducible.
+     *
+     * @param msgs            messages (with stemmed text)
+     * @param vocabulary      vocabulary of messages' token IDs (null - clear text of messages is used)
+     * @param inNumTopics     number of topics
+     * @param inAlpha         alpha parameter, for short text - 0.1, for long text - 0.01
+     * @param inBeta          beta parameter, 0.1 both for short and long texts
+     * @param inNumIterations number of iterations
+     * @param inTopWords      top topic words for output
+     * @param inNumThreads    number of sampling threads (1 - sequential sampling)
+     * @param inRandom        source of random numbers (each thread gets its split)
+     */
+    public SparseLDA(List<TMessage> msgs, TVocabulary vocabulary, int inNumTopics,
+                     double inAlpha, double inBeta, int inNumIterations, int inTopWords, int inNumThreads,
+                     RandomSource inRandom) {
+        random = inRandom;
+        alpha = inAlpha;
+        beta = inBeta;
+        numTopics = inNumTopics;
+        numIterations = inNumIterations;
+        topWords = inTopWords;
+
+        if (debug) System.out.println("SparseLDA: reading topic modeling corpus from messages");
+
+        Corpus tmCorpus = new Corpus(msgs, vocabulary, false);
+        id2WordVocabulary = tmCorpus.id2WordVocabulary;
+        numDocuments = tmCorpus.getNumDocuments();
+        numWordsInCorpus = tmCorpus.numWordsInCorpus;
+        messageIds = tmCorpus.messageIds;
+        vocabularySize = tmCorpus.getVocabularySize();
+
+        words = new int[numWordsInCorpus];
+        docStart = new int[numDocuments + 1];
+        int pos = 0;
+        for (int d = 0; d < numDocuments; d++) {
+            docStart[d] = pos;
+            for (int word : tmCorpus.documents.get(d))
+                words[pos++] = word;
+        }
+        docStart[numDocuments] = pos;
+
+        // at least one document per thread
+        numThreads = Math.max(1, Math.min(inNumThreads, numDocuments));
+
+        alphaSum = numTopics * alpha;
+        betaSum = vocabularySize * beta;
+
+        initialize();
+
+        if (debug) System.out.println("Corpus size: " + numDocuments + " docs, "
+                + numWordsInCorpus + " words");
+        if (debug) System.out.println("Vocabulary size: " + vocabularySize);
+        if (debug) System.out.println("Number of topics: " + numTopics);
+        if (debug) System.out.println("alpha: " + alpha);
+        if (debug) System.out.println("beta: " + beta);
+        if (debug) System.out.println("Number of sampling iterations: " + numIterations);
+        if (debug) System.out.println("Number of top topical words: " + topWords);
+        if (debug) System.out.println("Number of sampling threads: " + numThreads);
+    }
+
+    /**
+     * Randomly initialize topic assignments
+     */
+    private void initialize() {
+        if (debug) System.out.println("Randomly initializing topic assignments ...");
+        topicAssignments = new int[numWordsInCorpus];
+        docTopicCount = new int[numDocuments * numTopics];
+        wordTopicCount = new int[vocabularySize * numTopics];
+        sumTopicWordCount = new int[numTopics];
+        for (int d = 0; d < numDocuments; d++) {
+            for (int i = docStart[d]; i < docStart[d + 1]; i++) {
+                int topic = random.nextInt(numTopics); // Sample a topic
+                topicAssignments[i] = topic;
+                docTopicCount[d * numTopics + topic]++;
+                wordTopicCount[words[i] * numTopics + topic]++;
+                sumTopicWordCount[topic]++;
+            }
+        }
+    }
+
+    /**
+     * Inference topic models
+     */
+    public TMResults inference() {
+        if (debug) System.out.println("Running Gibbs sampling inference: ");
+
+        if (numThreads == 1) {
+            // sampler works directly with the global counts
+            Sampler sampler = new Sampler(0, numDocuments, wordTopicCount, sumTopicWordCount);
+            for (int iter = 1; iter <= numIterations; iter++) {
+                if (debug && iter % 100 == 0) System.out.println("\tSampling iteration: " + (iter));
+                sampler.sample();
+            }
+        } else {
+            inferenceParallel();
+        }
+
+        if (debug) System.out.println("Writing output from the last sample ...");
+
+        return write();
+    }
+
+    /**
+     * AD-LDA: each thread samples its documents with a local copy of the global counts,
+     * after each iteration local deltas are added to the global counts
+     */
+    private void inferenceParallel() {
+        Sampler[] samplers = new Sampler[numThreads];
+        // documents are split to parts with (almost) equal number of words
+        int from = 0;
+        for (int p = 0; p < numThreads; p++) {
+            int to = from;
+            long bound = (long) numWordsInCorpus * (p + 1) / numThreads;
+            while ((to < numDocuments) && ((docStart[to + 1] <= bound) || (to == from)))
+                to++;
+            if (p == numThreads - 1) to = numDocuments;
+            samplers[p] = new Sampler(from, to, new int[wordTopicCount.length], new int[numTopics]);
+            from = to;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(numThreads);
+            for (int iter = 1; iter <= numIterations; iter++) {
+                if (debug && iter % 100 == 0) System.out.println("\tSampling iteration: " + (iter));
+                futures.clear();
+                for (Sampler sampler : samplers) {
+                    futures.add(executor.submit(() -> {
+                        sampler.sync(wordTopicCount, sumTopicWordCount);
+                        sampler.sample();
+                    }));
+                }
+                for (Future<?> future : futures)
+                    future.get();
+                merge(samplers);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("SparseLDA: parallel sampling failed", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * adds count deltas of samplers to the global counts
+     */
+    private void merge(Sampler[] samplers) {
+        int[] wordTopic = wordTopicCount.clone();
+        int[] sumTopic = sumTopicWordCount.clone();
+        for (Sampler sampler : samplers) {
+            for (int i = 0; i < wordTopic.length; i++)
+                wordTopic[i] += sampler.wordTopic[i] - wordTopicCount[i];
+            for (int t = 0; t < numTopics; t++)
+                sumTopic[t] += sampler.sumTopic[t] - sumTopicWordCount[t];
+        }
+        wordTopicCount = wordTopic;
+        sumTopicWordCount = sumTopic;
+    }
+
+    /**
+     * Samples topics of the documents' range. Keeps the lists of non-zero topics of each word.
+     */
+    private class Sampler {
+
+        private int docFrom; // first document (inclusive)
+        private int docTo; // last document (exclusive)
+        private int[] wordTopic; // word-topic counts (global or local copy)
+        private int[] sumTopic; // topic counts (global or local copy)
+        private int[][] wordTopics; // non-zero topics of each word
+        private int[] wordTopicsSize; // number of non-zero topics of each word
+        private int[] docTopics; // non-zero topics of the current document
+        private int docTopicsSize;
+        private double[] coef; // (n_dt + alpha) / (n_t + betaSum) for each topic
+        private double[] qProbs; // topic-word bucket values
+        private RandomSource rand; // own source of the sampler
+
+        Sampler(int docFrom, int docTo, int[] wordTopic, int[] sumTopic) {
+            this.docFrom = docFrom;
+            this.docTo = docTo;
+            this.wordTopic = wordTopic;
+            this.sumTopic = sumTopic;
+            this.wordTopics = new int[vocabularySize][];
+            this.wordTopicsSize = new int[vocabularySize];
+            this.docTopics = new int[numTopics];
+            this.coef = new double[numTopics];
+            this.qProbs = new double[numTopics];
+            this.rand = random.split();
+            buildWordTopics();
+        }
+
+        /**
+         * copies the global counts to the local ones
+         */
+        void sync(int[] globalWordTopic, int[] globalSumTopic) {
+            System.arraycopy(globalWordTopic, 0, wordTopic, 0, wordTopic.length);
+            System.arraycopy(globalSumTopic, 0, sumTopic, 0, sumTopic.length);
+            buildWordTopics();
+        }
+
+        private void buildWordTopics() {
+            for (int w = 0; w < vocabularySize; w++) {
+                int size = 0;
+                for (int t = 0; t < numTopics; t++)
+                    if (wordTopic[w * numTopics + t] > 0) size++;
+                if ((wordTopics[w] == null) || (wordTopics[w].length < size))
+                    wordTopics[w] = new int[Math.max(size, 4)];
+                int k = 0;
+                for (int t = 0; t < numTopics; t++)
+                    if (wordTopic[w * numTopics + t] > 0) wordTopics[w][k++] = t;
+                wordTopicsSize[w] = k;
+            }
+        }
+
+        /**
+         * one Gibbs sampling iteration over the documents' range
+         */
+        void sample() {
+            // smoothing-only bucket: sum of alpha * beta / (n_t + betaSum)
+            double s = 0;
+            for (int t = 0; t < numTopics; t++) {
+                s += alpha * beta / (sumTopic[t] + betaSum);
+                coef[t] = alpha / (sumTopic[t] + betaSum);
+            }
+            for (int d = docFrom; d < docTo; d++) {
+                int docOffset = d * numTopics;
+                // document-topic bucket and coefficients of the document's topics
+                double r = 0;
+                docTopicsSize = 0;
+                for (int t = 0; t < numTopics; t++) {
+                    int count = docTopicCount[docOffset + t];
+                    if (count > 0) {
+                        docTopics[docTopicsSize++] = t;
+                        double denom = sumTopic[t] + betaSum;
+                        r += count * beta / denom;
+                        coef[t] = (count + alpha) / denom;
+                    }
+                }
+                for (int i = docStart[d]; i < docStart[d + 1]; i++) {
+                    int word = words[i];
+                    int topic = topicAssignments[i];
+                    int wordOffset = word * numTopics;
+
+                    // Decrease counts
+                    double denom = sumTopic[topic] + betaSum;
+                    s -= alpha * beta / denom;
+                    r -= docTopicCount[docOffset + topic] * beta / denom;
+                    docTopicCount[docOffset + topic]--;
+                    wordTopic[wordOffset + topic]--;
+                    sumTopic[topic]--;
+                    denom = sumTopic[topic] + betaSum;
+                    s += alpha * beta / denom;
+                    r += docTopicCount[docOffset + topic] * beta / denom;
+                    coef[topic] = (docTopicCount[docOffset + topic] + alpha) / denom;
+                    if (docTopicCount[docOffset + topic] == 0) removeDocTopic(topic);
+                    if (wordTopic[wordOffset + topic] == 0) removeWordTopic(word, topic);
+
+                    // topic-word bucket
+                    int[] topics = wordTopics[word];
+                    int size = wordTopicsSize[word];
+                    double q = 0;
+                    for (int k = 0; k < size; k++) {
+                        int t = topics[k];
+                        qProbs[k] = coef[t] * wordTopic[wordOffset + t];
+                        q += qProbs[k];
+                    }
+
+                    // Sample a topic
+                    double u = rand.nextDouble() * (s + r + q);
+                    if (u < q) {
+                        int k = 0;
+                        while ((k < size - 1) && ((u -= qProbs[k]) >= 0)) k++;
+                        topic = topics[k];
+                    } else if (((u -= q) < r) && (docTopicsSize > 0)) {
+                        int k = 0;
+                        while (k < docTopicsSize - 1) {
+                            int t = docTopics[k];
+                            if ((u -= docTopicCount[docOffset + t] * beta / (sumTopic[t] + betaSum)) < 0) break;
+                            k++;
+                        }
+                        topic = docTopics[k];
+                    } else {
+                        u -= r;
+                        topic = 0;
+                        while (topic < numTopics - 1) {
+                            if ((u -= alpha * beta / (sumTopic[topic] + betaSum)) < 0) break;
+                            topic++;
+                        }
+                    }
+
+                    // Increase counts
+                    denom = sumTopic[topic] + betaSum;
+                    s -= alpha * beta / denom;
+                    r -= docTopicCount[docOffset + topic] * beta / denom;
+                    if (docTopicCount[docOffset + topic] == 0) docTopics[docTopicsSize++] = topic;
+                    if (wordTopic[wordOffset + topic] == 0) addWordTopic(word, topic);
+                    docTopicCount[docOffset + topic]++;
+                    wordTopic[wordOffset + topic]++;
+                    sumTopic[topic]++;
+                    denom = sumTopic[topic] + betaSum;
+                    s += alpha * beta / denom;
+                    r += docTopicCount[docOffset + topic] * beta / denom;
+                    coef[topic] = (docTopicCount[docOffset + topic] + alpha) / denom;
+
+                    // Update topic assignments
+                    topicAssignments[i] = topic;
+                }
+                // resets coefficients of the document's topics
+                for (int k = 0; k < docTopicsSize; k++) {
+                    int t = docTopics[k];
+                    coef[t] = alpha / (sumTopic[t] + betaSum);
+                }
+            }
+        }
+
+        private void removeDocTopic(int topic) {
+            for (int k = 0; k < docTopicsSize; k++) {
+                if (docTopics[k] == topic) {
+                    docTopics[k] = docTopics[--docTopicsSize];
+                    return;
+                }
+            }
+        }
+
+        private void removeWordTopic(int word, int topic) {
+            int[] topics = wordTopics[word];
+            for (int k = 0; k < wordTopicsSize[word]; k++) {
+                if (topics[k] == topic) {
+                    topics[k] = topics[--wordTopicsSize[word]];
+                    return;
+                }
+            }
+        }
+
+        private void addWordTopic(int word, int topic) {
+            if (wordTopicsSize[word] == wordTopics[word].length)
+                wordTopics[word] = Arrays.copyOf(wordTopics[word], Math.min(numTopics, 2 * wordTopics[word].length));
+            wordTopics[word][wordTopicsSize[word]++] = topic;
+        }
+    }
+
+    private TMResultsParameters writeParameters() {
+        return new TMResultsParameters("LDA", numTopics, alpha, beta, numIterations, topWords);
+    }
+
+    private List<Map<String, Double>> writeTopTopicalWords() {
+        List<Map<String, Double>> topWordsList = new ArrayList<>();
+        for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+            Map<String, Double> topicTopWords = new HashMap<>();
+            // by count descending, ties - by word ID (column of the word-major counts)
+            for (int index : TopK.topK(wordTopicCount, tIndex, numTopics, vocabularySize, topWords)) {
+                double pro = (wordTopicCount[index * numTopics + tIndex] + beta)
+                        / (sumTopicWordCount[tIndex] + betaSum);
+                pro = Math.round(pro * 1000000.0) / 1000000.0;
+                topicTopWords.put(id2WordVocabulary.get(index), pro);
+            }
+            topWordsList.add(topicTopWords);
+        }
+        return topWordsList;
+    }
+
+    private TMResults write() {
+        // topic-major copy of the word-topic counts
+        IntMatrix topicWordMatrix = new IntMatrix(numTopics, vocabularySize);
+        for (int w = 0; w < vocabularySize; w++)
+            for (int t = 0; t < numTopics; t++)
+                topicWordMatrix.set(t, w, wordTopicCount[w * numTopics + t]);
+        IntMatrix docTopicMatrix = new IntMatrix(docTopicCount, numDocuments, numTopics);
+        int[] docSizes = new int[numDocuments];
+        for (int d = 0; d < numDocuments; d++)
+            docSizes[d] = docStart[d + 1] - docStart[d];
+        // phi and theta are calculated from counts on demand
+        TMResults res = new TMResults(writeParameters(), new RaggedIntMatrix(topicAssignments, docStart),
+                writeTopTopicalWords(),
+                DoubleMatrix.smoothed(topicWordMatrix, sumTopicWordCount, beta, betaSum), topicWordMatrix,
+                DoubleMatrix.smoothed(docTopicMatrix, docSizes, alpha, alphaSum), docTopicMatrix);
+        res.setMessageIds(messageIds);
+        return res;
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Title: Corpus.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicmodeling.ldadmm.utility;
+
+import com.crawlergram.structures.TMessage;
+import com.crawlergram.structures.TVocabulary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Word ID-based corpus for topic models. Word IDs are local (dense, in order of the first appearance).
+ * Messages with token IDs are read directly, other messages - from their clear text.
+ */
+public class Corpus {
+
+    public List<List<Integer>> documents = new ArrayList<>(); // Word ID-based corpus
+    public List<Integer> messageIds = new ArrayList<>(); // ID of the source message of each document
+    // Given a document, number of times its i^{th} word appearing from
+    // the first index to the i^{th}-index in the document (optional)
+    public List<List<Integer>> occurenceToIndexCount = new ArrayList<>();
+    public TreeMap<String, Integer> word2IdVocabulary = new TreeMap<>(); // Vocabulary to get ID given a word
+    public TreeMap<Integer, String> id2WordVocabulary = new TreeMap<>(); // Vocabulary to get word given an ID
+    public int numWordsInCorpus = 0; // Number of words in the corpus
+
+    private TVocabulary vocabulary; // shared vocabulary of token IDs (can be null)
+    private int[] globalToLocal = new int[0]; // shared token ID -> local word ID (-1 - unknown)
+    private int[] counts = new int[0]; // occurrences of local words in the current document
+
+    /**
+     * reads corpus from messages
+     *
+     * @param msgs             messages
+     * @param vocabulary       vocabulary of messages' token IDs (null - clear text is used)
+     * @param countOccurrences calculate occurrence-to-index counts (DMM)
+     */
+    public Corpus(List<TMessage> msgs, TVocabulary vocabulary, boolean countOccurrences) {
+        this.vocabulary = vocabulary;
+        for (TMessage msg : msgs) {
+            List<Integer> document;
+            if ((vocabulary != null) && (msg.getTokenIds() != null) && (msg.getTokens() != null)) {
+                int[] ids = msg.getTokenIds();
+                if (ids.length == 0) continue;
+                document = new ArrayList<>(ids.length);
+                for (int id : ids)
+                    document.add(localId(id));
+            } else {
+                String doc = msg.getClearText();
+                if (doc.trim().length() == 0) continue;
+                String[] words = doc.trim().split("\\s+");
+                document = new ArrayList<>(words.length);
+                for (String word : words)
+                    document.add(localId(word));
+            }
+            numWordsInCorpus += document.size();
+            documents.add(document);
+            messageIds.add(msg.getId());
+            if (countOccurrences)
+                occurenceToIndexCount.add(countOccurrences(document));
+        }
+    }
+
+    public int getNumDocuments() {
+        return documents.size();
+    }
+
+    public int getVocabularySize() {
+        return word2IdVocabulary.size();
+    }
+
+    /**
+     * returns local ID of the shared token ID
+     *
+     * @param id shared token ID
+     */
+    private int localId(int id) {
+        if (id >= globalToLocal.length) {
+            int old = globalToLocal.length;
+            globalToLocal = Arrays.copyOf(globalToLocal, Math.max(id + 1, 2 * old));
+            Arrays.fill(globalToLocal, old, globalToLocal.length, -1);
+        }
+        int local = globalToLocal[id];
+        if (local < 0) {
+            local = localId(vocabulary.getWord(id));
+            globalToLocal[id] = local;
+        }
+        return local;
+    }
+
+    /**
+     * returns local ID of the word, adds the word to vocabulary if it is absent
+     *
+     * @param word word
+     */
+    private int localId(String word) {
+        Integer local = word2IdVocabulary.get(word);
+        if (local == null) {
+            local = word2IdVocabulary.size();
+            word2IdVocabulary.put(word, local);
+            id2WordVocabulary.put(local, word);
+        }
+        return local;
+    }
+
+    /**
+     * Example: given a document of "a a b a b c d c". We have: 1 2 1 3 2 1 1 2
+     *
+     * @param document document (local word IDs)
+     */
+    private List<Integer> countOccurrences(List<Integer> document) {
+        if (counts.length < word2IdVocabulary.size())
+            counts = Arrays.copyOf(counts, Math.max(word2IdVocabulary.size(), 2 * counts.length));
+        List<Integer> occurrences = new ArrayList<>(document.size());
+        for (int word : document)
+            occurrences.add(++counts[word]);
+        // resets counters of the document's words
+        for (int word : document)
+            counts[word] = 0;
+        return occurrences;
+    }
+
+}
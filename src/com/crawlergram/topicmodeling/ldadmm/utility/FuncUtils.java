@@ -8,23 +8,6 @@ import java.util.List;
 import java.util.Map;
 
 public class FuncUtils {
-    public static <K, V extends Comparable<? super V>> Map<K, V> sortByValueDescending(Map<K, V> map) {
-        List<Map.Entry<K, V>> list = new LinkedList<Map.Entry<K, V>>(map.entrySet());
-        Collections.sort(list, new Comparator<Map.Entry<K, V>>() {
-            @Override
-            public int compare(Map.Entry<K, V> o1, Map.Entry<K, V> o2) {
-                int compare = (o1.getValue()).compareTo(o2.getValue());
-                return -compare;
-            }
-        });
-
-        Map<K, V> result = new LinkedHashMap<K, V>();
-        for (Map.Entry<K, V> entry : list) {
-            result.put(entry.getKey(), entry.getValue());
-        }
-        return result;
-    }
-
     public static <K, V extends Comparable<? super V>> Map<K, V> sortByValueAscending(Map<K, V> map) {
         List<Map.Entry<K, V>> list = new LinkedList<Map.Entry<K, V>>(map.entrySet());
         Collections.sort(list, new Comparator<Map.Entry<K, V>>() {
@@ -49,11 +32,26 @@ public class FuncUtils {
      * @return
      */
     public static int nextDiscrete(double[] probs) {
+        return nextDiscrete(probs, MTRandom.nextDouble());
+    }
+
+    /**
+     * Sample a value from a double array
+     *
+     * @param probs  weights
+     * @param random source of random numbers
+     * @return index of the value
+     */
+    public static int nextDiscrete(double[] probs, RandomSource random) {
+        return nextDiscrete(probs, random.nextDouble());
+    }
+
+    private static int nextDiscrete(double[] probs, double u) {
         double sum = 0.0;
         for (int i = 0; i < probs.length; i++)
             sum += probs[i];
 
-        double r = MTRandom.nextDouble() * sum;
+        double r = u * sum;
 
         sum = 0.0;
         for (int i = 0; i < probs.length; i++) {
@@ -64,6 +62,44 @@ public class FuncUtils {
         return probs.length - 1;
     }
 
+    // Lanczos approximation coefficients (g = 7, n = 9)
+    private static final double[] LANCZOS = {0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+            771.32342877765313, -176.61502916214059, 12.507343278686905, -0.13857109526572012,
+            9.9843695780195716e-6, 1.5056327351493116e-7};
+
+    /**
+     * Natural logarithm of the gamma function (x > 0)
+     *
+     * @param x argument
+     * @return ln(Gamma(x))
+     */
+    public static double logGamma(double x) {
+        if (x < 0.5)
+            return Math.log(Math.PI / Math.sin(Math.PI * x)) - logGamma(1 - x);
+        x -= 1;
+        double a = LANCZOS[0];
+        double t = x + 7.5;
+        for (int i = 1; i < LANCZOS.length; i++)
+            a += LANCZOS[i] / (x + i);
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(a);
+    }
+
+    /**
+     * Sample a value from an array of log-weights (weights are scaled by the max one, so they don't underflow)
+     *
+     * @param logProbs log-weights (are replaced by scaled weights)
+     * @param random   source of random numbers
+     * @return index of the value
+     */
+    public static int nextDiscreteLog(double[] logProbs, RandomSource random) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double logProb : logProbs)
+            if (logProb > max) max = logProb;
+        for (int i = 0; i < logProbs.length; i++)
+            logProbs[i] = Math.exp(logProbs[i] - max);
+        return nextDiscrete(logProbs, random);
+    }
+
     public static double mean(double[] m) {
         double sum = 0;
         for (int i = 0; i < m.length; i++)
@@ -0,0 +1,67 @@
+/*
+ * Title: RandomSource.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicmodeling.ldadmm.utility;
+
+/**
+ * Source of random numbers for topic models. Instances are not thread-safe and are not shared:
+ * each model instance has its own source, each worker thread gets its own split() of it.
+ * Runs are reproducible, if the source is created with the same seed.
+ */
+public interface RandomSource {
+
+    /**
+     * uniformly distributed double in [0, 1)
+     */
+    double nextDouble();
+
+    /**
+     * uniformly distributed int in [0, n)
+     *
+     * @param n bound (positive)
+     */
+    int nextInt(int n);
+
+    /**
+     * uniformly distributed long
+     */
+    long nextLong();
+
+    /**
+     * returns a new independent source, which state is derived from this one (for worker threads)
+     */
+    RandomSource split();
+
+    /**
+     * default (fast) generator with the given seed
+     *
+     * @param seed seed
+     */
+    static RandomSource create(long seed) {
+        return new XoroshiroRandom(seed);
+    }
+
+    /**
+     * default (fast) generator with a random seed (runs are not reproducible)
+     */
+    static RandomSource create() {
+        return new XoroshiroRandom(XoroshiroRandom.randomSeed());
+    }
+
+    /**
+     * own generator of the dialog's run, seed is mixed with the dialog's id, so dialogs get different sequences
+     *
+     * @param seed     seed of the model (null - random seed, runs are not reproducible)
+     * @param dialogId id of the dialog (null - 0)
+     */
+    static RandomSource forDialog(Long seed, Integer dialogId) {
+        if (seed == null) return create();
+        long id = (dialogId == null) ? 0 : dialogId;
+        return create(seed + 0x9E3779B97F4A7C15L * id);
+    }
+
+}
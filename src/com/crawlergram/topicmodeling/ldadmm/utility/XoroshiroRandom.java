@@ -0,0 +1,84 @@
+/*
+ * Title: XoroshiroRandom.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicmodeling.ldadmm.utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * xoroshiro128+ generator (D. Blackman, S. Vigna), state is initialized with SplitMix64.
+ * Lock-free and much faster than MersenneTwister, not thread-safe (see RandomSource).
+ */
+public class XoroshiroRandom implements RandomSource {
+
+    private static final AtomicLong SEED_UNIQUIFIER = new AtomicLong(0x9E3779B97F4A7C15L);
+
+    private long s0; // state
+    private long s1; // state
+
+    /**
+     * @param seed seed (same seed - same sequence)
+     */
+    public XoroshiroRandom(long seed) {
+        long x = seed;
+        s0 = splitMix64(x += 0x9E3779B97F4A7C15L);
+        s1 = splitMix64(x + 0x9E3779B97F4A7C15L);
+        if ((s0 == 0) && (s1 == 0)) s1 = 1; // state can't be all zeros
+    }
+
+    @Override
+    public long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = a + b;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    @Override
+    public double nextDouble() {
+        // 53 upper bits (lower bits of xoroshiro128+ are weaker)
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public int nextInt(int n) {
+        if (n <= 0) throw new IllegalArgumentException("n must be positive");
+        // Lemire's multiply-shift with rejection (unbiased)
+        long m = (nextLong() >>> 32) * n;
+        long low = m & 0xFFFFFFFFL;
+        if (low < n) {
+            long threshold = (0x100000000L - n) % n;
+            while (low < threshold) {
+                m = (nextLong() >>> 32) * n;
+                low = m & 0xFFFFFFFFL;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    @Override
+    public RandomSource split() {
+        return new XoroshiroRandom(splitMix64(nextLong()));
+    }
+
+    /**
+     * seed for generators without explicit seed
+     */
+    static long randomSeed() {
+        return splitMix64(SEED_UNIQUIFIER.getAndAdd(0x9E3779B97F4A7C15L) ^ System.nanoTime());
+    }
+
+    private static long splitMix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -9,6 +9,7 @@ package com.crawlergram.topicmodeling.models;
 
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.results.TMResults;
+import com.crawlergram.topicmodeling.ldadmm.utility.RandomSource;
 import com.crawlergram.topicmodeling.ldadmm.models.GSDMM;
 
 public class ModelDMM implements TopicModel {
@@ -18,10 +19,14 @@ public class ModelDMM implements TopicModel {
     private double beta; // betha hyperparameter
     private int iterations; // number of Gibbs Sampling iterations
     private int topWords; // top topical words number
+    private Long seed; // seed of random numbers (null - random seed)
+    private boolean singlePrecision; // theta of results in floats
 
     @Override
     public TMResults run(TDialog dialog) {
-        GSDMM dmm = new GSDMM(dialog.getMessages(), topics, alpha, beta, iterations, topWords);
+        GSDMM dmm = new GSDMM(dialog.getMessages(), dialog.getVocabulary(), topics, alpha, beta, iterations, topWords,
+                RandomSource.forDialog(seed, dialog.getId()));
+        dmm.setSinglePrecision(singlePrecision);
         return dmm.inference();
     }
 
@@ -31,6 +36,8 @@ public class ModelDMM implements TopicModel {
         this.beta = builder.beta;
         this.iterations = builder.iterations;
         this.topWords = builder.topWords;
+        this.seed = builder.seed;
+        this.singlePrecision = builder.singlePrecision;
     }
 
 
@@ -41,6 +48,8 @@ public class ModelDMM implements TopicModel {
         private double beta = 0.1; // betha hyperparameter
         private int iterations = 1000; // number of Gibbs Sampling iterations
         private int topWords; // top topical words number
+        private Long seed = null; // seed of random numbers (null - random seed)
+        private boolean singlePrecision = false; // theta of results in floats
 
         public ModelDMMBuilder setAlpha(double alpha) {
             this.alpha = alpha;
@@ -57,6 +66,24 @@ public class ModelDMM implements TopicModel {
             return this;
         }
 
+        /**
+         * runs with the same seed (for the same dialog) are reproducible
+         *
+         * @param seed seed of random numbers
+         */
+        public ModelDMMBuilder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * @param singlePrecision theta (document-topic probabilities) of results is stored in floats
+         */
+        public ModelDMMBuilder setSinglePrecision(boolean singlePrecision) {
+            this.singlePrecision = singlePrecision;
+            return this;
+        }
+
         public ModelDMMBuilder(int topics, int topWords) {
             this.topics = topics;
             this.topWords = topWords;
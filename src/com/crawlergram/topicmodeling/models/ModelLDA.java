@@ -9,7 +9,9 @@ package com.crawlergram.topicmodeling.models;
 
 import com.crawlergram.structures.dialog.TDialog;
 import com.crawlergram.structures.results.TMResults;
+import com.crawlergram.topicmodeling.ldadmm.utility.RandomSource;
 import com.crawlergram.topicmodeling.ldadmm.models.GSLDA;
+import com.crawlergram.topicmodeling.ldadmm.models.SparseLDA;
 
 public class ModelLDA implements TopicModel {
 
@@ -18,19 +20,36 @@ public class ModelLDA implements TopicModel {
     private double beta; // betha hyperparameter
     private int iterations; // number of Gibbs Sampling iterations
     private int topWords; // top topical words number
+    private Long seed; // seed of random numbers (null - random seed)
+    private boolean sparse; // SparseLDA sampler (GSLDA otherwise)
+    private int threads; // number of sampling threads (SparseLDA only)
 
     @Override
     public TMResults run(TDialog dialog) {
-        GSLDA dmm = new GSLDA(dialog.getMessages(), topics, alpha, beta, iterations, topWords);
+        if (sparse) {
+            SparseLDA lda = new SparseLDA(dialog.getMessages(), dialog.getVocabulary(), topics, alpha, beta,
+                    iterations, topWords, threads, RandomSource.forDialog(seed, dialog.getId()));
+            return lda.inference();
+        }
+        GSLDA dmm = new GSLDA(dialog.getMessages(), dialog.getVocabulary(), topics, alpha, beta, iterations, topWords,
+                RandomSource.forDialog(seed, dialog.getId()));
         return dmm.inference();
     }
 
+    @Override
+    public int getThreads() {
+        return sparse ? threads : 1;
+    }
+
     public ModelLDA(ModelLDABuilder builder){
         this.topics = builder.topics;
         this.alpha = builder.alpha;
         this.beta = builder.beta;
         this.iterations = builder.iterations;
         this.topWords = builder.topWords;
+        this.seed = builder.seed;
+        this.sparse = builder.sparse;
+        this.threads = builder.threads;
     }
 
 
@@ -41,6 +60,9 @@ public class ModelLDA implements TopicModel {
         private double beta = 0.1; // betha hyperparameter
         private int iterations = 1000; // number of Gibbs Sampling iterations
         private int topWords; // top topical words number
+        private Long seed = null; // seed of random numbers (null - random seed)
+        private boolean sparse = true; // SparseLDA sampler (GSLDA otherwise)
+        private int threads = 1; // number of sampling threads (SparseLDA only)
 
         public ModelLDABuilder setAlpha(double alpha) {
             this.alpha = alpha;
@@ -57,6 +79,32 @@ public class ModelLDA implements TopicModel {
             return this;
         }
 
+        /**
+         * @param sparse SparseLDA sampler (true) or classic Gibbs sampler GSLDA (false)
+         */
+        public ModelLDABuilder setSparse(boolean sparse) {
+            this.sparse = sparse;
+            return this;
+        }
+
+        /**
+         * @param threads number of sampling threads of SparseLDA (AD-LDA, 1 - sequential)
+         */
+        public ModelLDABuilder setThreads(int threads) {
+            this.threads = Math.max(1, threads);
+            return this;
+        }
+
+        /**
+         * runs with the same seed (for the same dialog) are reproducible
+         *
+         * @param seed seed of random numbers
+         */
+        public ModelLDABuilder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
         public ModelLDABuilder(int topics, int topWords) {
             this.topics = topics;
             this.topWords = topWords;
@@ -31,4 +31,11 @@ public interface TopicModel {
      */
     TMResults run(TDialog dialog);
 
+    /**
+     * number of threads used by one run (for CPU budget of the scheduler)
+     */
+    default int getThreads() {
+        return 1;
+    }
+
 }
@@ -0,0 +1,92 @@
+/*
+ * Title: testtokenizer.java
+ * Project: JTTA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+import com.crawlergram.preprocessing.models.Tokenizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the single-pass tokenizer with the regex cascade (advanced mode), their outputs must be identical.
+ * Random strings mix letters, digits, punctuation, units, links, repeated chars and non-latin text.
+ * Lines of text files (e.g. exported messages) can be checked too.
+ *
+ * usage: testtokenizer [iterations] [seed] [file ...]
+ */
+public class testtokenizer {
+
+    private static final String CHARS = "aab0123456789xXkmgbBsSecondhourmeterapmиткбмсч.,-_:/@#'\"!?+ \n\t\r \u0085" +
+            "ééwww.http://ftp://mailto:1e5 0x1F ..--–…«»😀中῿  ";
+    private static final String[] WORDS = {"10kb", "5sec", "3hours", "12km", "10pm", "0xcafe", "1e10", "1.5", "-3",
+            "+4", "NaN", "Infinity", "1f", "2d", "0x1p3", "www.x.com", "http://a.b", "aaaa", "...", "100th", "2nd",
+            "10мб", "5сек", "1_000", "1__2"};
+    private static final int[][] LENGTHS = {{2, 30}, {1, 30}, {3, 10}}; // min and max token lengths
+
+    public static void main(String[] args) throws IOException {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 300000;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 42;
+
+        int diffs = 0;
+        int checked = 0;
+        for (int[] lengths : LENGTHS) {
+            Tokenizer regex = new Tokenizer.TokenizerBuilder(true).setMinTokenLength(lengths[0])
+                    .setMaxTokenLength(lengths[1]).build();
+            Tokenizer singlePass = new Tokenizer.TokenizerBuilder(true).setSinglePass(true)
+                    .setMinTokenLength(lengths[0]).setMaxTokenLength(lengths[1]).build();
+
+            Random random = new Random(seed);
+            for (int i = 0; i < iterations; i++) {
+                diffs += compare(randomText(random), regex, singlePass, diffs);
+                checked++;
+            }
+
+            for (int f = 2; f < args.length; f++) {
+                try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[f]), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        diffs += compare(line, regex, singlePass, diffs);
+                        checked++;
+                    }
+                }
+            }
+        }
+        System.out.println("checked " + checked + " texts, differences " + diffs);
+        if (diffs > 0)
+            System.exit(1);
+    }
+
+    /**
+     * returns 1 if outputs differ (the first differences are printed)
+     */
+    private static int compare(String text, Tokenizer regex, Tokenizer singlePass, int diffs) {
+        List<String> expected = regex.tokenizeToList(text);
+        List<String> actual = singlePass.tokenizeToList(text);
+        if (expected.equals(actual))
+            return 0;
+        if (diffs < 10)
+            System.out.println("DIFF [" + text + "]\n regex:       " + expected + "\n single-pass: " + actual);
+        return 1;
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(40);
+        for (int j = 0; j < length; j++) {
+            if (random.nextInt(5) == 0)
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+            else
+                sb.append(CHARS.charAt(random.nextInt(CHARS.length())));
+        }
+        return sb.toString();
+    }
+
+}